@@ -19,7 +19,6 @@ package tigase.mix;
 
 import tigase.component.exceptions.RepositoryException;
 import tigase.mix.model.ChannelConfiguration;
-import tigase.mix.model.ChannelNodePermission;
 import tigase.mix.model.IMixRepository;
 import tigase.pubsub.Affiliation;
 import tigase.pubsub.Subscription;
@@ -85,112 +84,9 @@ public class Affiliations implements IAffiliationsCached {
 			if (channelConfiguration == null) {
 				return new UsersAffiliation(jid, Affiliation.none);
 			}
-			switch (nodeName) {
-				case Mix.Nodes.JIDMAP:
-					if (channelConfiguration.isAdministrator(jid) || channelConfiguration.isOwner(jid)) {
-						return new UsersAffiliation(jid, Affiliation.member);
-					} else {
-						return new UsersAffiliation(jid, Affiliation.none);
-					}
-				case Mix.Nodes.CONFIG:
-					switch (channelConfiguration.getConfigurationNodeAccess()) {
-						case participants:
-							if (channelConfiguration.isOwner(jid)) {
-								return new UsersAffiliation(jid, Affiliation.owner);
-							} else {
-								return new UsersAffiliation(jid, !isParticipant(jid) ? Affiliation.none : Affiliation.member);
-							}
-						case admins:
-							if (channelConfiguration.isOwner(jid)) {
-								return new UsersAffiliation(jid, Affiliation.owner);
-							} else if (channelConfiguration.isAdministrator(jid)) {
-								return new UsersAffiliation(jid, !isParticipant(jid) ? Affiliation.none : Affiliation.member);
-							} else {
-								return new UsersAffiliation(jid, Affiliation.outcast);
-							}
-						case owners:
-							if (channelConfiguration.isOwner(jid)) {
-								return new UsersAffiliation(jid, Affiliation.owner);
-							} else {
-								return new UsersAffiliation(jid, Affiliation.none);
-							}
-						case allowed:
-						case nobody:
-						default:
-							// TODO: add support when we add support for ALLOWED node!!!
-							return new UsersAffiliation(jid, Affiliation.outcast);
-					}
-				case Mix.Nodes.INFO:
-					if (channelConfiguration.isOwner(jid)) {
-						return new UsersAffiliation(jid, Affiliation.owner);
-					}
-					ChannelNodePermission updatePermission = channelConfiguration.getInformationNodeUpdateRights();
-					if (channelConfiguration.isAdministrator(jid) && updatePermission == ChannelNodePermission.admins) {
-						return new UsersAffiliation(jid, Affiliation.publisher);
-					}
-					switch (channelConfiguration.getInformationNodeSubscription()) {
-						case allowed:
-						case participants:
-							// TODO: add support when we add support for ALLOWED node!!!
-							return new UsersAffiliation(jid, isParticipant(jid) ? (
-									updatePermission == ChannelNodePermission.participants
-									? Affiliation.publisher
-									: Affiliation.member) : Affiliation.none);
-						case anyone:
-							return new UsersAffiliation(jid, Affiliation.member);
-						default:
-							return new UsersAffiliation(jid, Affiliation.none);
-					}
-				case Mix.Nodes.AVATAR_DATA:
-				case Mix.Nodes.AVATAR_METADATA:
-					if (channelConfiguration.isOwner(jid)) {
-						return new UsersAffiliation(jid, Affiliation.owner);
-					}
-					ChannelNodePermission avatarUpdatePermission = channelConfiguration.getAvatarNodesUpdateRights();
-					if (channelConfiguration.isAdministrator(jid) && avatarUpdatePermission == ChannelNodePermission.admins) {
-						return new UsersAffiliation(jid, Affiliation.publisher);
-					}
-					return new UsersAffiliation(jid, isParticipant(jid) ? (
-							avatarUpdatePermission == ChannelNodePermission.participants
-							? Affiliation.publisher
-							: Affiliation.member) : Affiliation.none);
-				case Mix.Nodes.MESSAGES:
-					switch (channelConfiguration.getMessagesNodeSubscription()) {
-						case allowed:
-							return new UsersAffiliation(jid, isParticipant(jid) ? Affiliation.member : Affiliation.none);
-						case participants:
-							// TODO: add support when we add support for ALLOWED node!!!
-							return new UsersAffiliation(jid, isParticipant(jid) ? Affiliation.member : Affiliation.none);
-						case anyone:
-							return new UsersAffiliation(jid, Affiliation.member);
-						default:
-							return new UsersAffiliation(jid, Affiliation.none);
-					}
-				case Mix.Nodes.PARTICIPANTS:
-					switch (channelConfiguration.getParticipantsNodeSubscription()) {
-						case participants:
-							return new UsersAffiliation(jid, isParticipant(jid) ? Affiliation.member : Affiliation.none);
-						case anyone:
-							return new UsersAffiliation(jid, Affiliation.member);
-						case admins:
-							return new UsersAffiliation(jid, channelConfiguration.isAdministrator(jid) ? Affiliation.member : Affiliation.none);
-						case owners:
-							return new UsersAffiliation(jid, channelConfiguration.isOwner(jid) ? Affiliation.member : Affiliation.none);
-						case allowed:
-						case nobody:
-							// TODO: add support when we add support for ALLOWED node!!!
-							return new UsersAffiliation(jid, Affiliation.none);
-					}
-				case Mix.Nodes.ALLOWED:
-				case Mix.Nodes.BANNED:
-					if (channelConfiguration.isOwner(jid)) {
-						return new UsersAffiliation(jid, Affiliation.owner);
-					} else {
-						return new UsersAffiliation(jid, channelConfiguration.isAdministrator(jid) ? Affiliation.publisher : Affiliation.none);
-					}
-				default:
-					return new UsersAffiliation(jid, Affiliation.none);
-			}
+			return new UsersAffiliation(jid, channelConfiguration.getPolicy()
+					.getAffiliation(nodeName, channelConfiguration.isOwner(jid),
+									channelConfiguration.isAdministrator(jid), () -> isParticipant(jid)));
 		} catch (RepositoryException ex) {
 			// TODO: Should we throw an exception in this case?
 			return new UsersAffiliation(jid, Affiliation.none);
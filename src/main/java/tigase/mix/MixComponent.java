@@ -18,17 +18,35 @@
 package tigase.mix;
 
 import tigase.kernel.beans.Bean;
-import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.mix.modules.ModuleDispatchIndex;
+import tigase.mix.util.ChannelExecutor;
+import tigase.mix.util.MixAddress;
 import tigase.pubsub.PubSubComponent;
+import tigase.server.Packet;
+import tigase.stats.StatisticsList;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.PacketErrorTypeException;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @Bean(name = "mix", parent = Kernel.class, active = true)
 @ConfigType(ConfigTypeEnum.DefaultMode)
-@ClusterModeRequired(active = false)
 public class MixComponent extends PubSubComponent implements IMixComponent {
-	
+
+	private static final Logger log = Logger.getLogger(MixComponent.class.getCanonicalName());
+	private static final int REPORTED_MAILBOXES = 10;
+
+	@Inject(nullAllowed = true)
+	private ChannelExecutor channelExecutor;
+	@Inject(nullAllowed = true)
+	private ModuleDispatchIndex moduleDispatchIndex;
+
 	@Override
 	public String getDiscoCategory() {
 		return "conference";
@@ -43,4 +61,60 @@ public class MixComponent extends PubSubComponent implements IMixComponent {
 	public String getDiscoDescription() {
 		return "Mediated Information eXchange";
 	}
+
+	@Override
+	public void processPacket(Packet packet) {
+		if (channelExecutor != null && channelExecutor.isEnabled()) {
+			MixAddress address = MixAddress.of(packet);
+			BareJID channelJID = address.getChannelJID();
+			if (channelJID != null) {
+				// packets for the same channel are processed in order, one after another
+				if (!channelExecutor.execute(channelJID, () -> processTaggedPacket(packet, address))) {
+					rejectPacket(packet);
+				}
+				return;
+			}
+		}
+		processTaggedPacket(packet, null);
+	}
+
+	private void rejectPacket(Packet packet) {
+		try {
+			addOutPacket(Authorization.RESOURCE_CONSTRAINT.getResponseMessage(packet,
+																			 "Too many pending requests for the channel",
+																			 true));
+		} catch (PacketErrorTypeException ex) {
+			log.log(Level.FINEST, "Dropping packet for overloaded channel: " + packet);
+		}
+	}
+
+	private void processTaggedPacket(Packet packet, MixAddress address) {
+		// classify destination address once, modules will reuse it
+		MixAddress.tag(packet, address);
+		try {
+			super.processPacket(packet);
+		} finally {
+			MixAddress.untag();
+			ModuleDispatchIndex.clearResolved();
+		}
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		if (moduleDispatchIndex != null && list.checkLevel(Level.FINE)) {
+			moduleDispatchIndex.forEachDispatchCounter(
+					(module, count) -> list.add(getName(), "Packets dispatched to " + module, count, Level.FINE));
+		}
+		if (channelExecutor != null && channelExecutor.isEnabled()) {
+			list.add(getName(), "Active channel mailboxes", channelExecutor.getActiveChannels(), Level.FINE);
+			list.add(getName(), "Channel mailboxes waiting for execution", channelExecutor.getWaitingChannels(),
+					 Level.FINE);
+			if (list.checkLevel(Level.FINER)) {
+				channelExecutor.forEachDeepestMailbox(REPORTED_MAILBOXES,
+													  (channelJID, depth) -> list.add(getName(), "Mailbox depth of " +
+															  channelJID, depth, Level.FINER));
+			}
+		}
+	}
 }
@@ -0,0 +1,44 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.cluster;
+
+import tigase.component.ScheduledTask;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.mix.IMixComponent;
+
+import java.time.Duration;
+
+@Bean(name = "mixClusterHeartbeat", parent = IMixComponent.class, active = true)
+@ClusterModeRequired(active = true)
+public class MixClusterHeartbeat
+		extends ScheduledTask {
+
+	@Inject
+	private MixClusterNodes clusterNodes;
+
+	public MixClusterHeartbeat() {
+		super(Duration.ofSeconds(1), Duration.ofSeconds(10));
+	}
+
+	@Override
+	public void run() {
+		clusterNodes.heartbeat();
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.cluster;
+
+import tigase.eventbus.EventBus;
+import tigase.eventbus.EventBusEvent;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.mix.IMixComponent;
+import tigase.mix.MixConfig;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of cluster nodes running the MIX component (using heartbeats sent over the event bus) and assigns
+ * channels to nodes using consistent hashing of the channel JID.
+ */
+@Bean(name = "mixClusterNodes", parent = IMixComponent.class, active = true)
+@ClusterModeRequired(active = true)
+public class MixClusterNodes
+		implements Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(MixClusterNodes.class.getCanonicalName());
+
+	private final ConcurrentHashMap<JID, Long> remoteNodes = new ConcurrentHashMap<>();
+	@Inject
+	private EventBus eventBus;
+	@Inject
+	private MixConfig mixConfig;
+	@ConfigField(desc = "Time (in seconds) after which node which did not send a heartbeat is removed", alias = "node-timeout")
+	private long nodeTimeout = 30;
+	@ConfigField(desc = "Number of virtual nodes on the hash ring per cluster node", alias = "virtual-nodes")
+	private int virtualNodes = 128;
+	private volatile ConsistentHashRing ring;
+
+	public JID getLocalNode() {
+		return mixConfig.getComponentJID();
+	}
+
+	public boolean hasRemoteNodes() {
+		return !remoteNodes.isEmpty();
+	}
+
+	public Set<JID> getRemoteNodes() {
+		return Collections.unmodifiableSet(remoteNodes.keySet());
+	}
+
+	/**
+	 * Returns node which owns the channel.
+	 */
+	public JID getOwner(BareJID channelJID) {
+		return getOwner(channelJID, null);
+	}
+
+	/**
+	 * Returns node which owns the channel if <code>excludedNode</code> would not be a part of the cluster.
+	 */
+	public JID getOwner(BareJID channelJID, JID excludedNode) {
+		ConsistentHashRing ring = this.ring;
+		if (ring == null) {
+			ring = rebuildRing();
+		}
+		JID owner = ring.getOwner(channelJID, excludedNode);
+		return owner == null ? getLocalNode() : owner;
+	}
+
+	public boolean isLocal(BareJID channelJID) {
+		return !hasRemoteNodes() || getLocalNode().equals(getOwner(channelJID));
+	}
+
+	/**
+	 * Notifies other nodes about this node and removes nodes which did not send a heartbeat for too long.
+	 */
+	public void heartbeat() {
+		eventBus.fire(new NodeHeartbeatEvent(mixConfig.getComponentName(), getLocalNode(), true));
+
+		long border = System.currentTimeMillis() - nodeTimeout * 1000;
+		for (Map.Entry<JID, Long> e : remoteNodes.entrySet()) {
+			if (e.getValue() < border && remoteNodes.remove(e.getKey(), e.getValue())) {
+				log.log(Level.WARNING, "MIX cluster node " + e.getKey() + " did not send heartbeat in time, removing");
+				nodeRemoved(e.getKey());
+			}
+		}
+	}
+
+	@HandleEvent
+	public void handleNodeHeartbeatEvent(NodeHeartbeatEvent event) {
+		if (!mixConfig.getComponentName().equals(event.getComponentName()) || getLocalNode().equals(event.getNode())) {
+			return;
+		}
+		if (event.isOnline()) {
+			if (remoteNodes.put(event.getNode(), System.currentTimeMillis()) == null) {
+				log.log(Level.CONFIG, "MIX cluster node " + event.getNode() + " joined");
+				rebuildRing();
+				eventBus.fire(new NodesChangedEvent(mixConfig.getComponentName(), event.getNode(), true));
+			}
+		} else if (remoteNodes.remove(event.getNode()) != null) {
+			log.log(Level.CONFIG, "MIX cluster node " + event.getNode() + " left");
+			nodeRemoved(event.getNode());
+		}
+	}
+
+	@Override
+	public void initialize() {
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (eventBus != null) {
+			eventBus.fire(new NodeHeartbeatEvent(mixConfig.getComponentName(), getLocalNode(), false));
+			eventBus.unregisterAll(this);
+		}
+	}
+
+	private void nodeRemoved(JID node) {
+		rebuildRing();
+		eventBus.fire(new NodesChangedEvent(mixConfig.getComponentName(), node, false));
+	}
+
+	private synchronized ConsistentHashRing rebuildRing() {
+		List<JID> nodes = new ArrayList<>(remoteNodes.keySet());
+		nodes.add(getLocalNode());
+		ring = new ConsistentHashRing(nodes, virtualNodes);
+		return ring;
+	}
+
+	/**
+	 * Immutable ring of cluster nodes, each node is placed on the ring multiple times to spread channels evenly.
+	 */
+	protected static class ConsistentHashRing {
+
+		private final TreeMap<Integer, JID> ring = new TreeMap<>();
+
+		private static int hash(String key) {
+			// String.hashCode() is not spread well enough for similar keys
+			int h = key.hashCode();
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			return h;
+		}
+
+		protected ConsistentHashRing(Collection<JID> nodes, int virtualNodes) {
+			for (JID node : nodes) {
+				for (int i = 0; i < virtualNodes; i++) {
+					ring.put(hash(node.toString() + "#" + i), node);
+				}
+			}
+		}
+
+		protected JID getOwner(BareJID channelJID, JID excludedNode) {
+			if (ring.isEmpty()) {
+				return null;
+			}
+			int h = hash(channelJID.toString());
+			for (JID node : ring.tailMap(h, true).values()) {
+				if (!node.equals(excludedNode)) {
+					return node;
+				}
+			}
+			for (JID node : ring.headMap(h, false).values()) {
+				if (!node.equals(excludedNode)) {
+					return node;
+				}
+			}
+			return null;
+		}
+	}
+
+	public static class NodeHeartbeatEvent
+			implements Serializable {
+
+		private String componentName;
+		private JID node;
+		private boolean online;
+
+		public NodeHeartbeatEvent() {
+		}
+
+		public NodeHeartbeatEvent(String componentName, JID node, boolean online) {
+			this.componentName = componentName;
+			this.node = node;
+			this.online = online;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public void setComponentName(String componentName) {
+			this.componentName = componentName;
+		}
+
+		public JID getNode() {
+			return node;
+		}
+
+		public void setNode(JID node) {
+			this.node = node;
+		}
+
+		public boolean isOnline() {
+			return online;
+		}
+
+		public void setOnline(boolean online) {
+			this.online = online;
+		}
+	}
+
+	/**
+	 * Local event fired when MIX component on other cluster node joined or left the cluster.
+	 */
+	public static class NodesChangedEvent
+			implements EventBusEvent {
+
+		private final String componentName;
+		private final JID node;
+		private final boolean joined;
+
+		public NodesChangedEvent(String componentName, JID node, boolean joined) {
+			this.componentName = componentName;
+			this.node = node;
+			this.joined = joined;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public JID getNode() {
+			return node;
+		}
+
+		public boolean isJoined() {
+			return joined;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.xmpp.Authorization;
+
+/**
+ * Exception thrown when access to the channel was denied.
+ * <br>
+ * Denials are expected (ie. when banned user keeps sending requests to the channel) and only reported back to the
+ * sender, so stack trace is not filled in.
+ */
+public class AccessDeniedException
+		extends PubSubException {
+
+	public AccessDeniedException(Authorization errorCondition) {
+		super(errorCondition);
+	}
+
+	public AccessDeniedException(Authorization errorCondition, String message) {
+		super(errorCondition, message);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -79,6 +79,8 @@ public class ChannelConfiguration {
 	private boolean privateMessages = true;
 	private boolean mandatoryNicks = true;
 
+	private volatile ChannelPolicy policy;
+
 	public ChannelConfiguration() {
 
 	}
@@ -273,6 +275,18 @@ public class ChannelConfiguration {
 		return privateMessages;
 	}
 
+	/**
+	 * Returns access policy of the channel, compiled on first use.
+	 */
+	public ChannelPolicy getPolicy() {
+		ChannelPolicy result = policy;
+		if (result == null) {
+			result = ChannelPolicy.compile(this);
+			policy = result;
+		}
+		return result;
+	}
+
 	public ChannelConfiguration apply(Element form) throws PubSubException {
 		ChannelConfiguration result = new ChannelConfiguration();
 		result.applyFrom(form);
@@ -343,6 +357,7 @@ public class ChannelConfiguration {
 		jidVisibility = getJIDVisibilityFromField(form, "JID Visibility", jidVisibility);
 		privateMessages = getBoolFromField(form, "Private Messages", privateMessages);
 		mandatoryNicks = getBoolFromField(form, "Mandatory Nicks", mandatoryNicks);
+		policy = null;
 
 		validate();
 	}
@@ -0,0 +1,190 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.mix.Mix;
+import tigase.pubsub.Affiliation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Access policy of the channel compiled from its configuration.
+ * <br>
+ * For each MIX node affiliation is precomputed for every combination of roles of the user (owner, administrator,
+ * participant), so that evaluation of the permission is a role lookup and an array access.
+ * <br>
+ * Permissions <code>anyone</code> and <code>allowed</code> are not separate roles. <code>anyone</code> grants
+ * access regardless of the roles of the user. <code>allowed</code> is evaluated as <code>participants</code> (or
+ * denies access, for configuration and participants nodes), as there is no support for 'allowed' node yet.
+ */
+public class ChannelPolicy {
+
+	private static final int OWNER = 1;
+	private static final int ADMIN = 2;
+	private static final int PARTICIPANT = 4;
+	private static final int ROLES = 8;
+
+	private static final String[] NODES = Mix.Nodes.ALL_NODES.toArray(new String[0]);
+	private static final Map<String, Integer> NODE_INDEXES = new HashMap<>();
+
+	static {
+		for (int i = 0; i < NODES.length; i++) {
+			NODE_INDEXES.put(NODES[i], i);
+		}
+	}
+
+	private final Affiliation[][] affiliations = new Affiliation[NODES.length][ROLES];
+
+	public static ChannelPolicy compile(ChannelConfiguration configuration) {
+		return new ChannelPolicy(configuration);
+	}
+
+	private ChannelPolicy(ChannelConfiguration configuration) {
+		for (int node = 0; node < NODES.length; node++) {
+			for (int roles = 0; roles < ROLES; roles++) {
+				affiliations[node][roles] = evaluate(configuration, NODES[node], (roles & OWNER) != 0,
+													 (roles & ADMIN) != 0, (roles & PARTICIPANT) != 0);
+			}
+		}
+	}
+
+	/**
+	 * Returns affiliation of the user with the node. Participation is checked only if it affects the result.
+	 */
+	public Affiliation getAffiliation(String node, boolean owner, boolean admin, ParticipantLookup participantLookup)
+			throws RepositoryException {
+		Integer idx = NODE_INDEXES.get(node);
+		if (idx == null) {
+			return Affiliation.none;
+		}
+		Affiliation[] nodeAffiliations = affiliations[idx];
+		int roles = (owner ? OWNER : 0) | (admin ? ADMIN : 0);
+		if (nodeAffiliations[roles] != nodeAffiliations[roles | PARTICIPANT] && participantLookup.isParticipant()) {
+			roles |= PARTICIPANT;
+		}
+		return nodeAffiliations[roles];
+	}
+
+	protected static Affiliation evaluate(ChannelConfiguration configuration, String nodeName, boolean owner,
+										  boolean admin, boolean participant) {
+		switch (nodeName) {
+			case Mix.Nodes.JIDMAP:
+				return (admin || owner) ? Affiliation.member : Affiliation.none;
+			case Mix.Nodes.CONFIG:
+				switch (configuration.getConfigurationNodeAccess()) {
+					case participants:
+						if (owner) {
+							return Affiliation.owner;
+						} else {
+							return !participant ? Affiliation.none : Affiliation.member;
+						}
+					case admins:
+						if (owner) {
+							return Affiliation.owner;
+						} else if (admin) {
+							return !participant ? Affiliation.none : Affiliation.member;
+						} else {
+							return Affiliation.outcast;
+						}
+					case owners:
+						return owner ? Affiliation.owner : Affiliation.none;
+					case allowed:
+					case nobody:
+					default:
+						// TODO: add support when we add support for ALLOWED node!!!
+						return Affiliation.outcast;
+				}
+			case Mix.Nodes.INFO:
+				if (owner) {
+					return Affiliation.owner;
+				}
+				ChannelNodePermission updatePermission = configuration.getInformationNodeUpdateRights();
+				if (admin && updatePermission == ChannelNodePermission.admins) {
+					return Affiliation.publisher;
+				}
+				switch (configuration.getInformationNodeSubscription()) {
+					case allowed:
+					case participants:
+						// TODO: add support when we add support for ALLOWED node!!!
+						return participant ? (updatePermission == ChannelNodePermission.participants
+											  ? Affiliation.publisher
+											  : Affiliation.member) : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					default:
+						return Affiliation.none;
+				}
+			case Mix.Nodes.AVATAR_DATA:
+			case Mix.Nodes.AVATAR_METADATA:
+				if (owner) {
+					return Affiliation.owner;
+				}
+				ChannelNodePermission avatarUpdatePermission = configuration.getAvatarNodesUpdateRights();
+				if (admin && avatarUpdatePermission == ChannelNodePermission.admins) {
+					return Affiliation.publisher;
+				}
+				return participant ? (avatarUpdatePermission == ChannelNodePermission.participants
+									  ? Affiliation.publisher
+									  : Affiliation.member) : Affiliation.none;
+			case Mix.Nodes.MESSAGES:
+				switch (configuration.getMessagesNodeSubscription()) {
+					case allowed:
+					case participants:
+						// TODO: add support when we add support for ALLOWED node!!!
+						return participant ? Affiliation.member : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					default:
+						return Affiliation.none;
+				}
+			case Mix.Nodes.PARTICIPANTS:
+				switch (configuration.getParticipantsNodeSubscription()) {
+					case participants:
+						return participant ? Affiliation.member : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					case admins:
+						return admin ? Affiliation.member : Affiliation.none;
+					case owners:
+						return owner ? Affiliation.member : Affiliation.none;
+					case allowed:
+					case nobody:
+					default:
+						// TODO: add support when we add support for ALLOWED node!!!
+						return Affiliation.none;
+				}
+			case Mix.Nodes.ALLOWED:
+			case Mix.Nodes.BANNED:
+				if (owner) {
+					return Affiliation.owner;
+				} else {
+					return admin ? Affiliation.publisher : Affiliation.none;
+				}
+			default:
+				return Affiliation.none;
+		}
+	}
+
+	@FunctionalInterface
+	public interface ParticipantLookup {
+
+		boolean isParticipant() throws RepositoryException;
+	}
+}
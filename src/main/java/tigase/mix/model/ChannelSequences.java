@@ -0,0 +1,213 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.mix.IMixComponent;
+import tigase.mix.Mix;
+import tigase.mix.cluster.MixClusterNodes;
+import tigase.pubsub.modules.mam.PubSubQuery;
+import tigase.pubsub.repository.IPubSubRepository;
+import tigase.pubsub.utils.Cache;
+import tigase.pubsub.utils.LRUCacheWithFuture;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+
+/**
+ * Assigns monotonic sequence numbers to messages published in channels and keeps a tail of the most recent messages of
+ * each active channel in memory, so that clients may quickly retrieve messages they missed.
+ * <br>
+ * Sequence number is stored in the archived message, so after restart numbering continues from the last archived
+ * message.
+ * <br>
+ * Counters are kept in memory of the node which publishes the message, so numbering is consistent only if all messages
+ * of the channel are published by a single node. Due to that, sequences (and catching up using them) are disabled
+ * when component is running in the cluster mode.
+ */
+@Bean(name = "channelSequences", parent = IMixComponent.class, active = true)
+public class ChannelSequences {
+
+	public static final String XMLNS = "tigase:mix:sequence:0";
+
+	private final Cache<BareJID, ChannelSequence> sequences = new LRUCacheWithFuture<>(1000);
+	@Inject
+	private IPubSubRepository pubSubRepository;
+	@Inject(nullAllowed = true)
+	private MixClusterNodes clusterNodes;
+	@ConfigField(desc = "Number of the most recent messages of the channel kept in memory")
+	private int tailSize = 100;
+
+	public static Long getSequence(Element message) {
+		Element sequenceEl = message.getChild("sequence", XMLNS);
+		if (sequenceEl == null) {
+			return null;
+		}
+		try {
+			return Long.parseLong(sequenceEl.getAttributeStaticStr("value"));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if sequences are assigned, which is not the case in the cluster mode.
+	 */
+	public boolean isEnabled() {
+		return clusterNodes == null;
+	}
+
+	/**
+	 * Assigns next sequence number of the channel to the message and stores it using passed <code>archiver</code>.
+	 * Sequence number is consumed and message is added to the tail of the channel only if it was stored successfully,
+	 * so a failed publication does not leave a gap in numbering.
+	 */
+	public long assign(BareJID channelJID, Element message, Archiver archiver) throws RepositoryException {
+		ChannelSequence sequence = getChannelSequence(channelJID);
+		synchronized (sequence) {
+			long value = sequence.last + 1;
+			Element sequenceEl = new Element("sequence", new String[]{"xmlns", "value"},
+											 new String[]{XMLNS, String.valueOf(value)});
+			message.addChild(sequenceEl);
+			try {
+				archiver.archive(message);
+			} catch (RepositoryException | RuntimeException ex) {
+				message.removeChild(sequenceEl);
+				throw ex;
+			}
+			sequence.last = value;
+			sequence.tail.add(message.clone());
+			while (sequence.tail.size() > tailSize) {
+				sequence.tail.poll();
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Returns messages with sequence number greater than <code>after</code> if all of them are still kept in memory.
+	 */
+	public CatchUp getMessagesAfter(BareJID channelJID, long after) throws RepositoryException {
+		ChannelSequence sequence = getChannelSequence(channelJID);
+		synchronized (sequence) {
+			if (after >= sequence.last) {
+				return new CatchUp(true, sequence.last, Collections.emptyList());
+			}
+			Element first = sequence.tail.peek();
+			Long firstValue = first == null ? null : getSequence(first);
+			if (firstValue == null || firstValue > after + 1) {
+				return new CatchUp(false, sequence.last, Collections.emptyList());
+			}
+			List<Element> messages = new ArrayList<>((int) (sequence.last - after));
+			for (Element message : sequence.tail) {
+				Long value = getSequence(message);
+				if (value != null && value > after) {
+					messages.add(message.clone());
+				}
+			}
+			return new CatchUp(true, sequence.last, messages);
+		}
+	}
+
+	public void channelRemoved(BareJID channelJID) {
+		sequences.remove(channelJID);
+	}
+
+	protected ChannelSequence getChannelSequence(BareJID channelJID) throws RepositoryException {
+		try {
+			return sequences.computeIfAbsent(channelJID, () -> {
+				try {
+					return new ChannelSequence(loadLastSequence(channelJID));
+				} catch (Exception ex) {
+					throw new Cache.CacheException(ex);
+				}
+			});
+		} catch (Cache.CacheException ex) {
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
+	}
+
+	protected long loadLastSequence(BareJID channelJID) throws ComponentException, RepositoryException {
+		PubSubQuery query = pubSubRepository.newQuery(channelJID);
+		query.setComponentJID(JID.jidInstanceNS(channelJID));
+		query.setQuestionerJID(JID.jidInstanceNS(channelJID));
+		query.setPubsubNode(Mix.Nodes.MESSAGES);
+		query.getRsm().setHasBefore(true);
+		query.getRsm().setMax(1);
+		long[] last = new long[]{0};
+		pubSubRepository.queryItems(query, (q, item) -> {
+			Long value = getSequence(item.getMessage());
+			if (value != null) {
+				last[0] = Math.max(last[0], value);
+			}
+		});
+		return last[0];
+	}
+
+	@FunctionalInterface
+	public interface Archiver {
+
+		void archive(Element message) throws RepositoryException;
+
+	}
+
+	public static class CatchUp {
+
+		private final boolean complete;
+		private final long last;
+		private final List<Element> messages;
+
+		public CatchUp(boolean complete, long last, List<Element> messages) {
+			this.complete = complete;
+			this.last = last;
+			this.messages = messages;
+		}
+
+		/**
+		 * Returns <code>false</code> if some of the requested messages are no longer kept in memory and should be
+		 * retrieved using MAM.
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		public long getLast() {
+			return last;
+		}
+
+		public List<Element> getMessages() {
+			return messages;
+		}
+	}
+
+	protected static class ChannelSequence {
+
+		private final ArrayDeque<Element> tail = new ArrayDeque<>();
+		private long last;
+
+		protected ChannelSequence(long last) {
+			this.last = last;
+		}
+	}
+}
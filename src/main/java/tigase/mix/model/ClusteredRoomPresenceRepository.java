@@ -0,0 +1,272 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.mix.MixConfig;
+import tigase.mix.cluster.MixClusterNodes;
+import tigase.mix.modules.RoomPresenceModule;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cluster version of the occupants repository.
+ * <br>
+ * Changes of occupants are replicated to all cluster nodes over the event bus, so all reads are local, while
+ * broadcasting of messages to occupants of the channel and cleaning up its occupants is done only by the node owning
+ * the channel (selected by consistent hashing of the channel JID).
+ */
+@Bean(name = "roomPresenceRepository", parent = RoomPresenceModule.class, active = true)
+@ClusterModeRequired(active = true)
+public class ClusteredRoomPresenceRepository
+		extends RoomPresenceRepository
+		implements Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(ClusteredRoomPresenceRepository.class.getCanonicalName());
+
+	@Inject
+	private MixClusterNodes clusterNodes;
+	@Inject
+	private EventBus eventBus;
+	@Inject
+	private MixConfig mixConfig;
+	private volatile boolean synchronizedWithCluster = false;
+
+	@Override
+	public void addTempParticipant(BareJID channelJID, JID occupantJID, String nickname) {
+		super.addTempParticipant(channelJID, occupantJID, nickname);
+		eventBus.fire(new OccupantChangedEvent(mixConfig.getComponentName(), clusterNodes.getLocalNode(), channelJID,
+											  occupantJID, nickname, true));
+	}
+
+	@Override
+	public void removeTempParticipant(BareJID channelJID, JID occupantJID, String nickname) {
+		super.removeTempParticipant(channelJID, occupantJID, nickname);
+		eventBus.fire(new OccupantChangedEvent(mixConfig.getComponentName(), clusterNodes.getLocalNode(), channelJID,
+											  occupantJID, nickname, false));
+	}
+
+	@Override
+	public boolean isClustered() {
+		return true;
+	}
+
+	@Override
+	public boolean hasRemoteNodes() {
+		return clusterNodes.hasRemoteNodes();
+	}
+
+	@Override
+	public boolean isResponsibleFor(BareJID channelJID) {
+		return clusterNodes.isLocal(channelJID);
+	}
+
+	@HandleEvent
+	public void handleOccupantChangedEvent(OccupantChangedEvent event) {
+		if (!mixConfig.getComponentName().equals(event.getComponentName()) ||
+				clusterNodes.getLocalNode().equals(event.getOrigin())) {
+			return;
+		}
+		if (event.isAvailable()) {
+			addOccupant(event.getChannelJID(), event.getOccupantJID(), event.getNickname());
+			// occupants are monitored by the node owning the channel, not by the node which received the presence
+			if (isResponsibleFor(event.getChannelJID())) {
+				ghostbuster.register(event.getChannelJID(), event.getOccupantJID());
+			}
+		} else {
+			JID removed = removeOccupant(event.getChannelJID(), event.getOccupantJID(), event.getNickname());
+			if (removed != null) {
+				ghostbuster.unregister(event.getChannelJID(), removed);
+			}
+		}
+	}
+
+	@HandleEvent
+	public void handleNodesChangedEvent(MixClusterNodes.NodesChangedEvent event) {
+		if (!mixConfig.getComponentName().equals(event.getComponentName())) {
+			return;
+		}
+		if (event.isJoined()) {
+			if (!synchronizedWithCluster) {
+				// we were alone, so we need to get occupants from other nodes
+				synchronizedWithCluster = true;
+				eventBus.fire(new OccupantsSyncRequestEvent(mixConfig.getComponentName(), clusterNodes.getLocalNode()));
+			}
+		} else {
+			if (!clusterNodes.hasRemoteNodes()) {
+				synchronizedWithCluster = false;
+			}
+		}
+		// ownership of channels changed, so we need to take over or hand over monitoring of their occupants
+		for (Map.Entry<BareJID, Map<String, JID>> e : getTempParticipantsPresence()) {
+			boolean responsible = isResponsibleFor(e.getKey());
+			for (JID occupantJID : e.getValue().values()) {
+				if (responsible) {
+					ghostbuster.register(e.getKey(), occupantJID);
+				} else {
+					ghostbuster.unregister(e.getKey(), occupantJID);
+				}
+			}
+		}
+	}
+
+	@HandleEvent
+	public void handleOccupantsSyncRequestEvent(OccupantsSyncRequestEvent event) {
+		JID localNode = clusterNodes.getLocalNode();
+		if (!mixConfig.getComponentName().equals(event.getComponentName()) || localNode.equals(event.getRequester())) {
+			return;
+		}
+		// channels owned by us before requester joined are synchronized by us
+		for (Map.Entry<BareJID, Map<String, JID>> e : getTempParticipantsPresence()) {
+			if (!localNode.equals(clusterNodes.getOwner(e.getKey(), event.getRequester()))) {
+				continue;
+			}
+			for (Map.Entry<String, JID> occupant : e.getValue().entrySet()) {
+				eventBus.fire(new OccupantChangedEvent(mixConfig.getComponentName(), localNode, e.getKey(),
+													  occupant.getValue(), occupant.getKey(), true));
+			}
+		}
+		log.log(Level.FINEST, () -> "synchronized occupants with " + event.getRequester());
+	}
+
+	@Override
+	public void initialize() {
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (eventBus != null) {
+			eventBus.unregisterAll(this);
+		}
+	}
+
+	public static class OccupantChangedEvent
+			implements Serializable {
+
+		private String componentName;
+		private JID origin;
+		private BareJID channelJID;
+		private JID occupantJID;
+		private String nickname;
+		private boolean available;
+
+		public OccupantChangedEvent() {
+		}
+
+		public OccupantChangedEvent(String componentName, JID origin, BareJID channelJID, JID occupantJID,
+									String nickname, boolean available) {
+			this.componentName = componentName;
+			this.origin = origin;
+			this.channelJID = channelJID;
+			this.occupantJID = occupantJID;
+			this.nickname = nickname;
+			this.available = available;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public void setComponentName(String componentName) {
+			this.componentName = componentName;
+		}
+
+		public JID getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(JID origin) {
+			this.origin = origin;
+		}
+
+		public BareJID getChannelJID() {
+			return channelJID;
+		}
+
+		public void setChannelJID(BareJID channelJID) {
+			this.channelJID = channelJID;
+		}
+
+		public JID getOccupantJID() {
+			return occupantJID;
+		}
+
+		public void setOccupantJID(JID occupantJID) {
+			this.occupantJID = occupantJID;
+		}
+
+		public String getNickname() {
+			return nickname;
+		}
+
+		public void setNickname(String nickname) {
+			this.nickname = nickname;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+
+		public void setAvailable(boolean available) {
+			this.available = available;
+		}
+	}
+
+	public static class OccupantsSyncRequestEvent
+			implements Serializable {
+
+		private String componentName;
+		private JID requester;
+
+		public OccupantsSyncRequestEvent() {
+		}
+
+		public OccupantsSyncRequestEvent(String componentName, JID requester) {
+			this.componentName = componentName;
+			this.requester = requester;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public void setComponentName(String componentName) {
+			this.componentName = componentName;
+		}
+
+		public JID getRequester() {
+			return requester;
+		}
+
+		public void setRequester(JID requester) {
+			this.requester = requester;
+		}
+	}
+}
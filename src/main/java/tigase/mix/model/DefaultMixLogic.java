@@ -30,7 +30,9 @@ import tigase.pubsub.repository.IAffiliations;
 import tigase.pubsub.repository.ISubscriptions;
 import tigase.pubsub.repository.stateless.UsersAffiliation;
 import tigase.pubsub.repository.stateless.UsersSubscription;
+import tigase.pubsub.utils.Cache;
 import tigase.pubsub.utils.DefaultPubSubLogic;
+import tigase.pubsub.utils.LRUCacheWithFuture;
 import tigase.server.BasicComponent;
 import tigase.server.CmdAcl;
 import tigase.server.Packet;
@@ -63,6 +65,14 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 	private CmdAcl.Type publicChannelCreationAcl = CmdAcl.Type.DOMAIN_ADMIN;
 	@ConfigField(desc = "ACL for creation ad-hoc channels")
 	private CmdAcl.Type adhocChannelCreationAcl = CmdAcl.Type.DOMAIN;
+	@ConfigField(desc = "Time (in milliseconds) for which node subscription permission decisions are cached")
+	private long permissionDecisionCacheTime = 2000;
+
+	private static final int MAX_CHANNEL_DECISIONS = 1000;
+
+	// decisions are grouped by channel, so that all decisions of the channel may be dropped when it changes; decisions
+	// of a single channel are kept in a bounded LRU cache as well
+	private final Cache<BareJID, Cache<DecisionKey, CachedDecision>> decisions = new LRUCacheWithFuture<>(1000);
 
 	@Inject
 	private IMixRepository mixRepository;
@@ -103,7 +113,7 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 			md.update(channelJID.getDomain().getBytes(StandardCharsets.UTF_8));
 			md.update(participantRealJID.toString().getBytes(StandardCharsets.UTF_8));
 			md.update(channelJID.getLocalpart().getBytes(StandardCharsets.UTF_8));
-			return "temp-" + Algorithms.bytesToHex(md.digest());
+			return TEMP_PARTICIPANT_ID_PREFIX + Algorithms.bytesToHex(md.digest());
 		} catch (NoSuchAlgorithmException e) {
 			return null;
 		}
@@ -171,43 +181,52 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 	@Override
 	public void checkPermission(BareJID channel, BareJID senderJid, MixAction action)
 			throws PubSubException, RepositoryException {
+		PermissionDecision decision = decidePermission(channel, senderJid, action);
+		if (!decision.isAllowed()) {
+			throw new AccessDeniedException(decision.getErrorCondition());
+		}
+	}
+
+	@Override
+	public PermissionDecision decidePermission(BareJID channel, BareJID senderJid, MixAction action)
+			throws RepositoryException {
 		switch (action) {
 			case manage:
 				ChannelConfiguration configuration = channel.getLocalpart() == null ? null : mixRepository.getChannelConfiguration(channel);
 				if (configuration != null) {
 					if (!configuration.isOwner(senderJid)) {
-						throw new PubSubException(Authorization.NOT_ALLOWED);
+						return PermissionDecision.notAllowed;
 					}
 				} else {
 					// do we have any other requirements?? ie. for channel creation?
 					if (channel.getLocalpart() == null) {
 						if (!checkAcl(channel, adhocChannelCreationAcl, senderJid)) {
-							throw new PubSubException(Authorization.FORBIDDEN);
+							return PermissionDecision.forbidden;
 						}
 					} else {
 						if (!checkAcl(channel, publicChannelCreationAcl, senderJid)) {
-							throw new PubSubException(Authorization.FORBIDDEN);
+							return PermissionDecision.forbidden;
 						}
 					}
 				}
 				break;
 			case publish:
 				if (mixRepository.getParticipant(channel, senderJid) == null) {
-					throw new PubSubException(Authorization.NOT_ALLOWED);
+					return PermissionDecision.notAllowed;
 				}
 				break;
 			case join:
 				ChannelConfiguration configuration2 = mixRepository.getChannelConfiguration(channel);
 				if (configuration2 != null) {
 					if (configuration2.isOwner(senderJid)) {
-						return;
+						return PermissionDecision.allowed;
 					}
 				}
 				Optional<List<BareJID>> allowed = mixRepository.getAllowed(channel);
 				if (allowed.isPresent()) {
 					if (!allowed.get().contains(senderJid)) {
 						if (!allowed.get().contains(BareJID.bareJIDInstanceNS(senderJid.getDomain()))) {
-							throw new PubSubException(Authorization.NOT_ALLOWED);
+							return PermissionDecision.notAllowed;
 						}
 					}
 				}
@@ -215,10 +234,10 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 				Optional<List<BareJID>> banned = mixRepository.getBanned(channel);
 				if (banned.isPresent()) {
 					if (banned.get().contains(senderJid)) {
-						throw new PubSubException(Authorization.NOT_ALLOWED);
+						return PermissionDecision.notAllowed;
 					}
 					if (banned.get().contains(BareJID.bareJIDInstanceNS(senderJid.getDomain()))) {
-						throw new PubSubException(Authorization.NOT_ALLOWED);
+						return PermissionDecision.notAllowed;
 					}
 				}
 				break;
@@ -226,14 +245,15 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 				ChannelConfiguration configuration1 = mixRepository.getChannelConfiguration(channel);
 				if (configuration1 != null) {
 					if (!configuration1.arePrivateMessagesAllowed()) {
-						throw new PubSubException(Authorization.NOT_ALLOWED);
+						return PermissionDecision.notAllowed;
 					}
 					if (mixRepository.getParticipant(channel, senderJid) == null) {
-						throw new PubSubException(Authorization.NOT_ALLOWED);
+						return PermissionDecision.notAllowed;
 					}
 				}
 				break;
 		}
+		return PermissionDecision.allowed;
 	}
 
 	@Override
@@ -246,12 +266,132 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 		if (action == Action.manageNode && (nodeName == null || nodeName.isEmpty())) {
 			this.checkPermission(serviceJid, senderJid.getBareJID(), MixAction.manage);
 		}
+		if (isDecidedByPolicy(nodeName, action)) {
+			// denials of retrieveItems and subscribe are expected, so they are reported without a stack trace
+			PermissionDecision decision = decideNodeAccess(serviceJid, configuration, nodeName, senderJid, action);
+			if (decision.isDenied()) {
+				throw new AccessDeniedException(decision.getErrorCondition());
+			}
+			if (!decision.isAllowed()) {
+				throw new PubSubException(decision.getErrorCondition());
+			}
+			return;
+		}
+		super.checkPermission(serviceJid, nodeName, senderJid, action);
+	}
+
+	@Override
+	public PermissionDecision decidePermission(BareJID serviceJid, String nodeName, JID senderJid, Action action)
+			throws PubSubException, RepositoryException {
+		if (action == Action.subscribe && MIX_NODES.contains(nodeName)) {
+			Cache<DecisionKey, CachedDecision> channelDecisions = getChannelDecisions(serviceJid);
+			DecisionKey key = new DecisionKey(serviceJid, nodeName, senderJid.getBareJID());
+			CachedDecision cached;
+			try {
+				cached = channelDecisions.computeIfAbsent(key, () -> {
+					try {
+						return decideCachedPermission(key, action);
+					} catch (PubSubException | RepositoryException ex) {
+						throw new Cache.CacheException(ex);
+					}
+				});
+			} catch (Cache.CacheException ex) {
+				if (ex.getCause() instanceof PubSubException) {
+					throw (PubSubException) ex.getCause();
+				}
+				if (ex.getCause() instanceof RepositoryException) {
+					throw (RepositoryException) ex.getCause();
+				}
+				throw new RepositoryException(ex.getMessage(), ex);
+			}
+			if (cached.isExpired(permissionDecisionCacheTime)) {
+				cached = decideCachedPermission(key, action);
+				// if channel was changed in the meantime, this cache is no longer used and decision is dropped
+				channelDecisions.put(key, cached);
+			}
+			return cached.decision;
+		}
+		return decideNodePermission(serviceJid, nodeName, senderJid, action);
+	}
+
+	@Override
+	public void permissionsChanged(BareJID channelJID) {
+		decisions.remove(channelJID);
+	}
+
+	@Override
+	public PermissionDecision decideNodePermission(BareJID serviceJid, String nodeName, JID senderJid, Action action)
+			throws PubSubException, RepositoryException {
+		ChannelConfiguration configuration = mixRepository.getChannelConfiguration(serviceJid);
+		if (configuration == null) {
+			return PermissionDecision.itemNotFound;
+		}
+		if (isDecidedByPolicy(nodeName, action)) {
+			return decideNodeAccess(serviceJid, configuration, nodeName, senderJid, action);
+		}
+		// other actions are checked by the PubSub logic, which reports denial by throwing an exception
+		try {
+			checkPermission(serviceJid, nodeName, senderJid, action);
+			return PermissionDecision.allowed;
+		} catch (PubSubException ex) {
+			PermissionDecision decision = PermissionDecision.of(ex.getErrorCondition());
+			if (decision == null) {
+				throw ex;
+			}
+			return decision;
+		}
+	}
+
+	private static boolean isDecidedByPolicy(String nodeName, Action action) {
+		return (action == Action.subscribe || action == Action.retrieveItems) && MIX_NODES.contains(nodeName);
+	}
+
+	/**
+	 * Decides if sender may subscribe to or retrieve items of the MIX node using affiliation computed by the policy of
+	 * the channel. All MIX nodes use <code>whitelist</code> access model, so access is granted only to users
+	 * affiliated with the node.
+	 */
+	protected PermissionDecision decideNodeAccess(BareJID serviceJid, ChannelConfiguration configuration,
+												  String nodeName, JID senderJid, Action action)
+			throws RepositoryException {
+		if (getRepository().getNodeConfig(serviceJid, nodeName) == null) {
+			return PermissionDecision.itemNotFound;
+		}
 		if (action == Action.retrieveItems && Mix.Nodes.MESSAGES.equals(nodeName) && roomPresenceRepository != null) {
 			if (roomPresenceRepository.isRoomParticipant(serviceJid, senderJid)) {
-				return;
+				return PermissionDecision.allowed;
 			}
 		}
-		super.checkPermission(serviceJid, nodeName, senderJid, action);
+		BareJID jid = senderJid.getBareJID();
+		Affiliation affiliation = configuration.getPolicy()
+				.getAffiliation(nodeName, configuration.isOwner(jid), configuration.isAdministrator(jid),
+								() -> mixRepository.getParticipant(serviceJid, jid) != null);
+		return decideNodeAccess(affiliation, action);
+	}
+
+	protected static PermissionDecision decideNodeAccess(Affiliation affiliation, Action action) {
+		if (affiliation == Affiliation.outcast) {
+			return PermissionDecision.forbidden;
+		}
+		if (affiliation == Affiliation.none) {
+			return PermissionDecision.notAllowed;
+		}
+		boolean permitted = action == Action.subscribe ? affiliation.isSubscribe() : affiliation.isRetrieveItem();
+		return permitted ? PermissionDecision.allowed : PermissionDecision.notAllowed;
+	}
+
+	private CachedDecision decideCachedPermission(DecisionKey key, Action action)
+			throws PubSubException, RepositoryException {
+		// decision is made for bare JID as it is the key of the cache
+		return new CachedDecision(decideNodePermission(key.channel, key.node, JID.jidInstance(key.jid), action));
+	}
+
+	protected Cache<DecisionKey, CachedDecision> getChannelDecisions(BareJID channelJID) throws RepositoryException {
+		try {
+			return decisions.computeIfAbsent(channelJID, () -> new LRUCacheWithFuture<>(MAX_CHANNEL_DECISIONS));
+		} catch (Cache.CacheException ex) {
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
 	}
 
 	@Override
@@ -404,6 +544,47 @@ public class DefaultMixLogic extends DefaultPubSubLogic
 		}
 	}
 
+	protected static class DecisionKey {
+
+		private final BareJID channel;
+		private final String node;
+		private final BareJID jid;
+
+		private DecisionKey(BareJID channel, String node, BareJID jid) {
+			this.channel = channel;
+			this.node = node;
+			this.jid = jid;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof DecisionKey)) {
+				return false;
+			}
+			DecisionKey that = (DecisionKey) o;
+			return channel.equals(that.channel) && node.equals(that.node) && jid.equals(that.jid);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(channel, node, jid);
+		}
+	}
+
+	protected static class CachedDecision {
+
+		private final PermissionDecision decision;
+		private final long timestamp = System.currentTimeMillis();
+
+		private CachedDecision(PermissionDecision decision) {
+			this.decision = decision;
+		}
+
+		private boolean isExpired(long cacheTime) {
+			return System.currentTimeMillis() - timestamp > cacheTime;
+		}
+	}
+
 	private static <T> void xor(Collection<T> oldCollection, Collection<T> newCollection, Consumer<T> consumer) {
 		oldCollection.stream().filter(it -> !newCollection.contains(it)).forEach(consumer);
 		newCollection.stream().filter(it -> !oldCollection.contains(it)).forEach(consumer);
@@ -18,12 +18,15 @@
 package tigase.mix.model;
 
 import tigase.component.exceptions.RepositoryException;
+import tigase.pubsub.Subscription;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.repository.ISubscriptions;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface IMixRepository {
@@ -35,6 +38,21 @@ public interface IMixRepository {
 
 	List<String> getParticipantIds(BareJID channelJID) throws RepositoryException;
 
+	/**
+	 * Returns number of participants of the channel (excluding temporary MUC participants) without loading them.
+	 */
+	int getParticipantsCount(BareJID channelJID) throws RepositoryException;
+
+	/**
+	 * Loads participants with passed ids at once. Participants which are not cached are read by id from a single
+	 * retrieval of the participants node (pubsub repository has no lookup of many items by ids, so each missing
+	 * participant is still read separately from the retrieved node items).
+	 *
+	 * @return map of participants by id (in the same order as passed), without participants which do not exist
+	 */
+	Map<String, IParticipant> getParticipants(BareJID channelJID, Collection<String> participantIds)
+			throws RepositoryException;
+
 	void removeParticipant(BareJID channelJID, BareJID participantJID) throws RepositoryException;
 	void removeParticipant(BareJID channelJID, String participantId) throws RepositoryException;
 
@@ -46,6 +64,15 @@ public interface IMixRepository {
 	void removeTempParticipant(BareJID channelJID, JID participantJID) throws RepositoryException;
 
 	JID getTempParticipantJID(BareJID serviceJID, String participantId) throws RepositoryException;
+
+	/**
+	 * Returns JIDs of temporary (MUC) participants with passed ids using a single retrieval of the MUC participants
+	 * node.
+	 *
+	 * @return map of JIDs by participant id, without participants which do not exist
+	 */
+	Map<String, JID> getTempParticipantJIDs(BareJID serviceJID, Collection<String> participantIds)
+			throws RepositoryException;
 	BareJID getParticipantJidFromJidMap(BareJID service, String participantId) throws RepositoryException;
 	
 	Optional<List<BareJID>> getAllowed(BareJID channelJID) throws RepositoryException;
@@ -54,4 +81,13 @@ public interface IMixRepository {
 	ChannelConfiguration getChannelConfiguration(BareJID channelJID) throws RepositoryException;
 
 	ISubscriptions getNodeSubscriptions(BareJID serviceJid, String nodeName) throws RepositoryException;
+
+	/**
+	 * Sets subscription of the passed JID to all passed nodes of the channel. All subscriptions are loaded and modified
+	 * first and only nodes which subscription really changed are written back to the repository.
+	 *
+	 * @return list of nodes which exist in the channel (in the same order as passed)
+	 */
+	List<String> updateSubscriptions(BareJID channelJID, BareJID jid, Collection<String> nodes,
+									 Subscription subscription) throws RepositoryException;
 }
@@ -28,6 +28,15 @@ import java.util.function.Consumer;
 
 public interface MixLogic extends PubSubLogic {
 
+	/**
+	 * Prefix of ids of temporary participants (MUC occupants), which are not channel participants.
+	 */
+	String TEMP_PARTICIPANT_ID_PREFIX = "temp-";
+
+	static boolean isTempParticipantId(String participantId) {
+		return participantId.startsWith(TEMP_PARTICIPANT_ID_PREFIX);
+	}
+
 	void generateAffiliationChangesNotifications(BareJID channelJid,
 														ChannelConfiguration oldConfig,
 														ChannelConfiguration newConfig, Consumer<Packet> packetConsumer);
@@ -36,8 +45,39 @@ public interface MixLogic extends PubSubLogic {
 
 	String generateTempParticipantId(BareJID channelJID, JID participantRealJID) throws RepositoryException;
 
+	/**
+	 * Checks permission of the sender to execute action on the channel, throwing {@link AccessDeniedException} if
+	 * access is denied.
+	 */
 	void checkPermission(BareJID channel, BareJID senderJid, MixAction action)
 			throws PubSubException, RepositoryException;
 
+	/**
+	 * Checks permission of the sender to execute action on the channel, returning decision instead of throwing an
+	 * exception if access is denied.
+	 */
+	PermissionDecision decidePermission(BareJID channel, BareJID senderJid, MixAction action)
+			throws RepositoryException;
+
 	boolean isChannelCreationAllowed(BareJID channelJID, BareJID senderJID);
+
+	/**
+	 * Checks permission of the sender to execute action on the channel node, returning decision instead of throwing
+	 * an exception if access is denied.
+	 */
+	PermissionDecision decidePermission(BareJID serviceJid, String nodeName, JID senderJid, Action action)
+			throws PubSubException, RepositoryException;
+
+	/**
+	 * Checks permission of the sender to execute action on the channel node without using cached decisions. Should
+	 * be used when access is granted (ie. on join), as a cached decision may not reflect the most recent changes.
+	 */
+	PermissionDecision decideNodePermission(BareJID serviceJid, String nodeName, JID senderJid, Action action)
+			throws PubSubException, RepositoryException;
+
+	/**
+	 * Drops permission decisions cached for the channel. Called when participants or configuration of the channel
+	 * change.
+	 */
+	void permissionsChanged(BareJID channelJID);
 }
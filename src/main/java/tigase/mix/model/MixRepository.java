@@ -20,13 +20,16 @@ package tigase.mix.model;
 import tigase.component.PacketWriter;
 import tigase.component.exceptions.RepositoryException;
 import tigase.eventbus.EventBus;
+import tigase.eventbus.EventBusEvent;
 import tigase.eventbus.HandleEvent;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.mix.Affiliations;
 import tigase.mix.Mix;
+import tigase.mix.cluster.MixClusterNodes;
 import tigase.mix.MixComponent;
 import tigase.mix.MixConfig;
 import tigase.pubsub.*;
@@ -51,7 +54,9 @@ import tigase.xmpp.Authorization;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -84,9 +89,25 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 
 	@Inject
 	private EventBus eventBus;
+
+	@Inject(nullAllowed = true)
+	private ChannelSequences channelSequences;
+
+	@Inject(nullAllowed = true)
+	private ParticipantsChangeLog participantsChangeLog;
+
+	@ConfigField(desc = "Notify other cluster nodes about changes of cached channel data")
+	private boolean nearCache = true;
+	@Inject(nullAllowed = true)
+	private MixClusterNodes clusterNodes;
 	
 	private final Cache<BareJID, ChannelConfiguration> channelConfigs = new LRUCacheWithFuture<>(1000);
 	private final Cache<ParticipantKey, Participant> participants = new LRUCacheWithFuture<>(4000);
+	// participant id -> real JID maps of channels with hidden JIDs, filled lazily and kept in sync with JIDMAP node
+	private final Cache<BareJID, Map<String, BareJID>> jidMaps = new LRUCacheWithFuture<>(1000);
+	// ids of participants of channels (without MUC occupants), loaded once and later updated on each join and leave,
+	// so the number of participants is known without scanning the node
+	private final Cache<BareJID, Set<String>> countedParticipantIds = new LRUCacheWithFuture<>(1000);
 
 	@Override
 	public void beforeUnregister() {
@@ -129,6 +150,32 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 		return Arrays.asList(participantIds);
 	}
 
+	@Override
+	public int getParticipantsCount(BareJID channelJID) throws RepositoryException {
+		return getCountedParticipantIds(channelJID).size();
+	}
+
+	protected Set<String> getCountedParticipantIds(BareJID channelJID) throws RepositoryException {
+		try {
+			return countedParticipantIds.computeIfAbsent(channelJID, () -> {
+				try {
+					Set<String> ids = ConcurrentHashMap.newKeySet();
+					for (String id : getParticipantIds(channelJID)) {
+						// temporary participants are MUC occupants, they are not channel participants
+						if (!MixLogic.isTempParticipantId(id)) {
+							ids.add(id);
+						}
+					}
+					return ids;
+				} catch (RepositoryException ex) {
+					throw new Cache.CacheException(ex);
+				}
+			});
+		} catch (Cache.CacheException ex) {
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
+	}
+
 	@Override
 	public IParticipant getParticipant(BareJID channelJID, BareJID participantRealJID) throws RepositoryException {
 		String participantId = mixLogic.generateParticipantId(channelJID, participantRealJID);
@@ -222,14 +269,7 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 			return participants.computeIfAbsent(key, () -> {
 				try {
 					IItems items = pubSubRepository.getNodeItems(key.channelJID, Mix.Nodes.PARTICIPANTS);
-					if (items == null) {
-						return null;
-					}
-					IItems.IItem item = items.getItem(key.participantId);
-					if (item == null) {
-						return null;
-					}
-					return new Participant(key.participantId, item.getItem().getChild("participant", Mix.CORE1_XMLNS));
+					return loadParticipant(items, key.participantId);
 				} catch (RepositoryException ex) {
 					throw new Cache.CacheException(ex);
 				}
@@ -239,6 +279,36 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 		}
 	}
 
+	@Override
+	public Map<String, IParticipant> getParticipants(BareJID channelJID, Collection<String> participantIds)
+			throws RepositoryException {
+		Map<String, IParticipant> result = new LinkedHashMap<>();
+		ParticipantsLoader loader = new ParticipantsLoader(channelJID);
+		try {
+			for (String participantId : participantIds) {
+				Participant participant = participants.computeIfAbsent(new ParticipantKey(channelJID, participantId),
+																	   () -> loader.load(participantId));
+				if (participant != null) {
+					result.put(participantId, participant);
+				}
+			}
+		} catch (Cache.CacheException ex) {
+			throw new RepositoryException(ex.getMessage(), ex);
+		}
+		return result;
+	}
+
+	protected Participant loadParticipant(IItems items, String participantId) throws RepositoryException {
+		if (items == null) {
+			return null;
+		}
+		IItems.IItem item = items.getItem(participantId);
+		if (item == null) {
+			return null;
+		}
+		return new Participant(participantId, item.getItem().getChild("participant", Mix.CORE1_XMLNS));
+	}
+
 	@Override
 	public void removeParticipant(BareJID channelJID, BareJID participantJID) throws RepositoryException {
 		String id = mixLogic.generateParticipantId(channelJID, participantJID);
@@ -247,8 +317,17 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 
 	@Override
 	public void removeParticipant(BareJID channelJID, String participantId) throws RepositoryException {
+		ParticipantKey key = new ParticipantKey(channelJID, participantId);
 		retractItemModule.retractItems(channelJID, Mix.Nodes.PARTICIPANTS, Collections.singletonList(participantId));
-		participants.remove(new ParticipantKey(channelJID, participantId));
+		participants.remove(key);
+		if (!MixLogic.isTempParticipantId(participantId)) {
+			getCountedParticipantIds(channelJID).remove(participantId);
+		}
+		permissionsChanged(channelJID);
+		if (participantsChangeLog != null) {
+			participantsChangeLog.participantRemoved(channelJID, participantId);
+		}
+		invalidateOnPeers(channelJID, CacheInvalidationEvent.PARTICIPANT_REMOVED, participantId);
 	}
 
 	@Override
@@ -291,6 +370,13 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 									   Collections.singletonList(itemEl), null);
 
 		participants.put(new ParticipantKey(channelJID, participant.getParticipantId()), participant);
+		if (MixLogic.isTempParticipantId(participantId) || getCountedParticipantIds(channelJID).add(participantId)) {
+			permissionsChanged(channelJID);
+		}
+		if (participantsChangeLog != null) {
+			participantsChangeLog.participantUpdated(channelJID, participant.getParticipantId());
+		}
+		invalidateOnPeers(channelJID, CacheInvalidationEvent.PARTICIPANT, participant.getParticipantId());
 		return participant;
 	}
 
@@ -305,6 +391,27 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 		if (items == null) {
 			return null;
 		}
+		return loadTempParticipantJID(items, participantId);
+	}
+
+	@Override
+	public Map<String, JID> getTempParticipantJIDs(BareJID serviceJID, Collection<String> participantIds)
+			throws RepositoryException {
+		Map<String, JID> result = new HashMap<>();
+		IItems items = pubSubRepository.getNodeItems(serviceJID, Mix.Nodes.PARTICIPANTS_MUC);
+		if (items == null) {
+			return result;
+		}
+		for (String participantId : participantIds) {
+			JID jid = loadTempParticipantJID(items, participantId);
+			if (jid != null) {
+				result.put(participantId, jid);
+			}
+		}
+		return result;
+	}
+
+	protected JID loadTempParticipantJID(IItems items, String participantId) throws RepositoryException {
 		IItems.IItem item = items.getItem(participantId);
 		if (item == null) {
 			return null;
@@ -372,9 +479,48 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 		return pubSubRepository.getNodeSubscriptions(serviceJid, nodeName);
 	}
 
+	@Override
+	public List<String> updateSubscriptions(BareJID channelJID, BareJID jid, Collection<String> nodes,
+											Subscription subscription) throws RepositoryException {
+		List<String> existingNodes = new ArrayList<>(nodes.size());
+		Map<String, ISubscriptions> changed = new LinkedHashMap<>();
+		for (String node : nodes) {
+			ISubscriptions subscriptions = pubSubRepository.getNodeSubscriptions(channelJID, node);
+			if (subscriptions == null) {
+				continue;
+			}
+			existingNodes.add(node);
+			Subscription current = subscriptions.getSubscription(jid);
+			if (current == subscription) {
+				continue;
+			}
+			if (current == Subscription.none) {
+				subscriptions.addSubscriberJid(jid, subscription);
+			} else {
+				subscriptions.changeSubscription(jid, subscription);
+			}
+			changed.put(node, subscriptions);
+		}
+		for (Map.Entry<String, ISubscriptions> e : changed.entrySet()) {
+			pubSubRepository.update(channelJID, e.getKey(), e.getValue());
+		}
+		return existingNodes;
+	}
+
 	@Override
 	public void serviceRemoved(BareJID userJid) {
 		channelConfigs.remove(userJid);
+		jidMaps.remove(userJid);
+		countedParticipantIds.remove(userJid);
+		permissionsChanged(userJid);
+		fireChannelInfoChanged(userJid);
+		if (channelSequences != null) {
+			channelSequences.channelRemoved(userJid);
+		}
+		if (participantsChangeLog != null) {
+			participantsChangeLog.channelRemoved(userJid);
+		}
+		invalidateOnPeers(userJid, CacheInvalidationEvent.CHANNEL, null);
 	}
 
 	@Override
@@ -389,6 +535,18 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 					// if exception happended just ignore it..
 				}
 				break;
+			case Mix.Nodes.JIDMAP:
+				if (id != null) {
+					getJidMap(serviceJID).remove(id);
+				} else {
+					jidMaps.remove(serviceJID);
+				}
+				invalidateOnPeers(serviceJID, CacheInvalidationEvent.JIDMAP, id);
+				break;
+			case Mix.Nodes.INFO:
+				invalidateOnPeers(serviceJID, CacheInvalidationEvent.INFO, id);
+				fireChannelInfoChanged(serviceJID);
+				break;
 			default:
 				// nothing to do..
 				break;
@@ -409,6 +567,7 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 					// if exception happended just ignore it..
 				}
 				updateChannelConfiguration(serviceJID, item);
+				permissionsChanged(serviceJID);
 
 				try {
 					newConfig = getChannelConfiguration(serviceJID);
@@ -418,6 +577,12 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 				} catch (RepositoryException ex) {
 					// if exception happended just ignore it..
 				}
+				invalidateOnPeers(serviceJID, CacheInvalidationEvent.CONFIG, null);
+				fireChannelInfoChanged(serviceJID);
+				break;
+			case Mix.Nodes.INFO:
+				invalidateOnPeers(serviceJID, CacheInvalidationEvent.INFO, null);
+				fireChannelInfoChanged(serviceJID);
 				break;
 			case Mix.Nodes.BANNED:
 				try {
@@ -428,6 +593,17 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 					// if exception happended just ignore it..
 				}
 				break;
+			case Mix.Nodes.JIDMAP:
+				if (id != null) {
+					BareJID jid = parseJidMapItem(item);
+					if (jid != null) {
+						getJidMap(serviceJID).put(id, jid);
+					} else {
+						getJidMap(serviceJID).remove(id);
+					}
+					invalidateOnPeers(serviceJID, CacheInvalidationEvent.JIDMAP, id);
+				}
+				break;
 			default:
 				// nothing to do..
 				break;
@@ -523,11 +699,82 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 			removeParticipant(channelJID, participantJID);
 			Map<String, UsersSubscription> userSubscriptions = pubSubRepository.getUserSubscriptions(channelJID,
 																									 participantJID);
-			for (String node : userSubscriptions.keySet()) {
-				ISubscriptions subscriptions = pubSubRepository.getNodeSubscriptions(channelJID, node);
-				subscriptions.changeSubscription(participantJID, Subscription.none);
-				pubSubRepository.update(channelJID, node, subscriptions);
-			}
+			updateSubscriptions(channelJID, participantJID, userSubscriptions.keySet(), Subscription.none);
+		}
+	}
+
+	@HandleEvent
+	public void handleCacheInvalidationEvent(CacheInvalidationEvent event) {
+		if (!Objects.equals(event.getComponentName(), mixConfig.getComponentName()) ||
+				Objects.equals(event.getOrigin(), mixConfig.getComponentJID()) || event.getCache() == null) {
+			return;
+		}
+		BareJID channelJID = event.getChannelJID();
+		switch (event.getCache()) {
+			case CacheInvalidationEvent.CONFIG:
+				channelConfigs.remove(channelJID);
+				permissionsChanged(channelJID);
+				fireChannelInfoChanged(channelJID);
+				break;
+			case CacheInvalidationEvent.INFO:
+				fireChannelInfoChanged(channelJID);
+				break;
+			case CacheInvalidationEvent.PARTICIPANT:
+			case CacheInvalidationEvent.PARTICIPANT_REMOVED:
+				if (event.getKey() != null) {
+					participants.remove(new ParticipantKey(channelJID, event.getKey()));
+				}
+				countedParticipantIds.remove(channelJID);
+				permissionsChanged(channelJID);
+				// each node keeps its own log of changes, so change made on other node needs to be recorded here
+				if (participantsChangeLog != null) {
+					if (event.getKey() == null) {
+						participantsChangeLog.channelRemoved(channelJID);
+					} else if (CacheInvalidationEvent.PARTICIPANT_REMOVED.equals(event.getCache())) {
+						participantsChangeLog.participantRemoved(channelJID, event.getKey());
+					} else {
+						participantsChangeLog.participantUpdated(channelJID, event.getKey());
+					}
+				}
+				break;
+			case CacheInvalidationEvent.JIDMAP:
+				// entries of JID map are loaded lazily, so we can drop the whole map
+				jidMaps.remove(channelJID);
+				break;
+			case CacheInvalidationEvent.CHANNEL:
+				channelConfigs.remove(channelJID);
+				jidMaps.remove(channelJID);
+				countedParticipantIds.remove(channelJID);
+				permissionsChanged(channelJID);
+				fireChannelInfoChanged(channelJID);
+				if (channelSequences != null) {
+					channelSequences.channelRemoved(channelJID);
+				}
+				if (participantsChangeLog != null) {
+					participantsChangeLog.channelRemoved(channelJID);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	protected void fireChannelInfoChanged(BareJID channelJID) {
+		if (eventBus != null) {
+			eventBus.fire(new ChannelInfoChangedEvent(mixConfig.getComponentName(), channelJID));
+		}
+	}
+
+	protected void invalidateOnPeers(BareJID channelJID, String cache, String key) {
+		if (nearCache && clusterNodes != null && eventBus != null) {
+			eventBus.fire(new CacheInvalidationEvent(mixConfig.getComponentName(), mixConfig.getComponentJID(),
+													 channelJID, cache, key));
+		}
+	}
+
+	protected void permissionsChanged(BareJID channelJID) {
+		if (mixLogic != null) {
+			mixLogic.permissionsChanged(channelJID);
 		}
 	}
 
@@ -582,20 +829,19 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 			throws RepositoryException, PubSubException {
 		if (oldValue == JIDVisibility.visible && newValue == JIDVisibility.hidden) {
 			List<String> participantIds = getParticipantIds(serviceJID);
-			for (String participantId : participantIds) {
-				IParticipant participant = getParticipant(serviceJID, participantId);
+			for (IParticipant participant : getParticipants(serviceJID, participantIds).values()) {
 				if (participant.getRealJid() != null) {
-					updateParticipant(serviceJID, participantId, participant.getRealJid(), participant.getNick());
+					updateParticipant(serviceJID, participant.getParticipantId(), participant.getRealJid(),
+									  participant.getNick());
 				}
 			}
 		} else if (oldValue == JIDVisibility.hidden && newValue == JIDVisibility.visible) {
 			List<String> participantIds = getParticipantIds(serviceJID);
-			for (String participantId : participantIds) {
-				IParticipant participant = getParticipant(serviceJID, participantId);
+			for (IParticipant participant : getParticipants(serviceJID, participantIds).values()) {
 				if (participant.getRealJid() == null) {
-					BareJID jid = getParticipantJidFromJidMap(serviceJID, participantId);
+					BareJID jid = getParticipantJidFromJidMap(serviceJID, participant.getParticipantId());
 					if (jid != null) {
-						updateParticipant(serviceJID, participantId, jid, participant.getNick());
+						updateParticipant(serviceJID, participant.getParticipantId(), jid, participant.getNick());
 					}
 				}
 			}
@@ -604,6 +850,27 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 	}
 
 	public BareJID getParticipantJidFromJidMap(BareJID service, String participantId) throws RepositoryException {
+		Map<String, BareJID> jidMap = getJidMap(service);
+		BareJID jid = jidMap.get(participantId);
+		if (jid == null) {
+			jid = loadParticipantJidFromJidMap(service, participantId);
+			if (jid != null) {
+				jidMap.put(participantId, jid);
+			}
+		}
+		return jid;
+	}
+
+	protected Map<String, BareJID> getJidMap(BareJID service) {
+		try {
+			return jidMaps.computeIfAbsent(service, () -> new ConcurrentHashMap<>());
+		} catch (Cache.CacheException ex) {
+			// this should not happen as creation of the map cannot fail
+			return new ConcurrentHashMap<>();
+		}
+	}
+
+	protected BareJID loadParticipantJidFromJidMap(BareJID service, String participantId) throws RepositoryException {
 		IItems items = pubSubRepository.getNodeItems(service, Mix.Nodes.JIDMAP);
 		if (items == null) {
 			return null;
@@ -612,7 +879,14 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 		if (item == null) {
 			return null;
 		}
-		Element participantEl = item.getItem().getChild("participant", Mix.ANON0_XMLNS);
+		return parseJidMapItem(item.getItem());
+	}
+
+	protected static BareJID parseJidMapItem(Element item) {
+		if (item == null) {
+			return null;
+		}
+		Element participantEl = item.getChild("participant", Mix.ANON0_XMLNS);
 		if (participantEl == null) {
 			return null;
 		}
@@ -636,10 +910,38 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 			participantEl.withElement("jid", null, realJid.toString());
 		});
 		publishItemModule.publishItems(serviceJID, Mix.Nodes.JIDMAP, JID.jidInstance(serviceJID), Collections.singletonList(itemEl), null);
+		getJidMap(serviceJID).put(participantId, realJid);
 	}
 
 	protected void removeJidMap(BareJID serviceJID, List<String> participantIds) throws RepositoryException {
 		retractItemModule.retractItems(serviceJID, Mix.Nodes.JIDMAP, participantIds);
+		jidMaps.remove(serviceJID);
+	}
+
+	/**
+	 * Loads participants node of the channel only once and only if any of participants was not cached.
+	 */
+	private class ParticipantsLoader {
+
+		private final BareJID channelJID;
+		private IItems items;
+		private boolean loaded = false;
+
+		private ParticipantsLoader(BareJID channelJID) {
+			this.channelJID = channelJID;
+		}
+
+		private Participant load(String participantId) throws Cache.CacheException {
+			try {
+				if (!loaded) {
+					items = pubSubRepository.getNodeItems(channelJID, Mix.Nodes.PARTICIPANTS);
+					loaded = true;
+				}
+				return loadParticipant(items, participantId);
+			} catch (RepositoryException ex) {
+				throw new Cache.CacheException(ex);
+			}
+		}
 	}
 
 	protected static class ParticipantKey {
@@ -666,4 +968,98 @@ public class MixRepository<T> implements IMixRepository, IPubSubRepository.IList
 			return Objects.hash(channelJID, participantId);
 		}
 	}
+
+	/**
+	 * Local event fired when information or configuration of the channel changed (or channel was removed).
+	 */
+	public static class ChannelInfoChangedEvent
+			implements EventBusEvent {
+
+		private final String componentName;
+		private final BareJID channelJID;
+
+		public ChannelInfoChangedEvent(String componentName, BareJID channelJID) {
+			this.componentName = componentName;
+			this.channelJID = channelJID;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public BareJID getChannelJID() {
+			return channelJID;
+		}
+	}
+
+	/**
+	 * Event sent to other cluster nodes to evict entry of the cache changed on the origin node.
+	 */
+	public static class CacheInvalidationEvent
+			implements Serializable {
+
+		public static final String CHANNEL = "channel";
+		public static final String CONFIG = "config";
+		public static final String INFO = "info";
+		public static final String JIDMAP = "jidmap";
+		public static final String PARTICIPANT = "participant";
+		public static final String PARTICIPANT_REMOVED = "participant-removed";
+
+		private String componentName;
+		private JID origin;
+		private BareJID channelJID;
+		private String cache;
+		private String key;
+
+		public CacheInvalidationEvent() {
+		}
+
+		public CacheInvalidationEvent(String componentName, JID origin, BareJID channelJID, String cache, String key) {
+			this.componentName = componentName;
+			this.origin = origin;
+			this.channelJID = channelJID;
+			this.cache = cache;
+			this.key = key;
+		}
+
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public void setComponentName(String componentName) {
+			this.componentName = componentName;
+		}
+
+		public JID getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(JID origin) {
+			this.origin = origin;
+		}
+
+		public BareJID getChannelJID() {
+			return channelJID;
+		}
+
+		public void setChannelJID(BareJID channelJID) {
+			this.channelJID = channelJID;
+		}
+
+		public String getCache() {
+			return cache;
+		}
+
+		public void setCache(String cache) {
+			this.cache = cache;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public void setKey(String key) {
+			this.key = key;
+		}
+	}
 }
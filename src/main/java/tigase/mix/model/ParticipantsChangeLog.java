@@ -0,0 +1,173 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.mix.IMixComponent;
+import tigase.pubsub.utils.Cache;
+import tigase.pubsub.utils.LRUCacheWithFuture;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps version of the list of participants of each active channel and a bounded log of recent changes of the list, so
+ * that clients may retrieve only participants changed since the version they know.
+ * <br>
+ * Version has a form of <code>epoch:counter</code>, where epoch is generated when the log of the channel is created,
+ * so versions issued before the restart (or eviction of the log) are not valid anymore.
+ */
+@Bean(name = "participantsChangeLog", parent = IMixComponent.class, active = true)
+public class ParticipantsChangeLog {
+
+	public static final String XMLNS = "tigase:mix:participants-sync:0";
+
+	private final Cache<BareJID, ChannelLog> logs = new LRUCacheWithFuture<>(1000);
+	@ConfigField(desc = "Maximal number of participants changes kept for each channel")
+	private int maxChanges = 500;
+
+	public void participantUpdated(BareJID channelJID, String participantId) {
+		getChannelLog(channelJID).record(participantId, false, maxChanges);
+	}
+
+	public void participantRemoved(BareJID channelJID, String participantId) {
+		getChannelLog(channelJID).record(participantId, true, maxChanges);
+	}
+
+	public void channelRemoved(BareJID channelJID) {
+		logs.remove(channelJID);
+	}
+
+	public String getVersion(BareJID channelJID) {
+		return getChannelLog(channelJID).getVersion();
+	}
+
+	/**
+	 * Returns changes since the passed version or <code>null</code> if changes are not known and full list of
+	 * participants needs to be sent.
+	 */
+	public Delta getChangesSince(BareJID channelJID, String version) {
+		if (version == null) {
+			return null;
+		}
+		return getChannelLog(channelJID).getChangesSince(version);
+	}
+
+	protected ChannelLog getChannelLog(BareJID channelJID) {
+		try {
+			return logs.computeIfAbsent(channelJID, () -> new ChannelLog());
+		} catch (Cache.CacheException ex) {
+			// this should not happen as creation of the log cannot fail
+			return new ChannelLog();
+		}
+	}
+
+	public static class Delta {
+
+		private final String version;
+		private final Set<String> updated;
+		private final Set<String> removed;
+
+		public Delta(String version, Set<String> updated, Set<String> removed) {
+			this.version = version;
+			this.updated = updated;
+			this.removed = removed;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public Set<String> getUpdated() {
+			return updated;
+		}
+
+		public Set<String> getRemoved() {
+			return removed;
+		}
+	}
+
+	protected static class ChannelLog {
+
+		private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+		private final ArrayDeque<Change> changes = new ArrayDeque<>();
+		private long counter = 0;
+
+		protected synchronized void record(String participantId, boolean removed, int maxChanges) {
+			changes.add(new Change(++counter, participantId, removed));
+			while (changes.size() > maxChanges) {
+				changes.poll();
+			}
+		}
+
+		protected synchronized String getVersion() {
+			return epoch + ":" + counter;
+		}
+
+		protected synchronized Delta getChangesSince(String version) {
+			int idx = version.indexOf(':');
+			if (idx < 0 || !epoch.equals(version.substring(0, idx))) {
+				return null;
+			}
+			long since;
+			try {
+				since = Long.parseLong(version.substring(idx + 1));
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+			if (since > counter) {
+				return null;
+			}
+			Change oldest = changes.peek();
+			if (since < counter && (oldest == null || oldest.counter > since + 1)) {
+				// log was trimmed
+				return null;
+			}
+			Set<String> updated = new LinkedHashSet<>();
+			Set<String> removed = new LinkedHashSet<>();
+			for (Change change : changes) {
+				if (change.counter <= since) {
+					continue;
+				}
+				if (change.removed) {
+					updated.remove(change.participantId);
+					removed.add(change.participantId);
+				} else {
+					removed.remove(change.participantId);
+					updated.add(change.participantId);
+				}
+			}
+			return new Delta(getVersion(), updated, removed);
+		}
+	}
+
+	private static class Change {
+
+		private final long counter;
+		private final String participantId;
+		private final boolean removed;
+
+		private Change(long counter, String participantId, boolean removed) {
+			this.counter = counter;
+			this.participantId = participantId;
+			this.removed = removed;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.xmpp.Authorization;
+
+/**
+ * Result of the permission check, allowing callers to handle denial without catching exceptions.
+ */
+public enum PermissionDecision {
+	allowed(null),
+	forbidden(Authorization.FORBIDDEN),
+	notAllowed(Authorization.NOT_ALLOWED),
+	notAuthorized(Authorization.NOT_AUTHORIZED),
+	itemNotFound(Authorization.ITEM_NOT_FOUND);
+
+	private final Authorization errorCondition;
+
+	PermissionDecision(Authorization errorCondition) {
+		this.errorCondition = errorCondition;
+	}
+
+	public static PermissionDecision of(Authorization errorCondition) {
+		switch (errorCondition) {
+			case FORBIDDEN:
+				return forbidden;
+			case NOT_ALLOWED:
+				return notAllowed;
+			case NOT_AUTHORIZED:
+				return notAuthorized;
+			case ITEM_NOT_FOUND:
+				return itemNotFound;
+			default:
+				return null;
+		}
+	}
+
+	public boolean isAllowed() {
+		return this == allowed;
+	}
+
+	/**
+	 * Returns <code>true</code> if access was denied to the requester (and not refused for other reason, ie. missing
+	 * channel).
+	 */
+	public boolean isDenied() {
+		return this == forbidden || this == notAllowed || this == notAuthorized;
+	}
+
+	public Authorization getErrorCondition() {
+		return errorCondition;
+	}
+}
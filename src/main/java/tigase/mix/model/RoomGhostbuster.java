@@ -139,17 +139,28 @@ public class RoomGhostbuster
 									BareJID.bareJIDInstanceNS(null, component.getName() + "." + vhost.getDomain()), null);
 							if (channels != null) {
 								for (BareJID channel : channels) {
+									if (!roomPresenceRepository.isResponsibleFor(channel)) {
+										continue;
+									}
 									List<String> participantIds = mixRepository.getParticipantIds(channel);
 									Set<String> currentParticipantIds = roomPresenceRepository.getRoomParticipantsIds(channel);
+									List<String> ghostIds = new ArrayList<>();
 									for (String id : participantIds) {
-										if (!id.startsWith("temp-")) {
+										if (!MixLogic.isTempParticipantId(id)) {
 											continue;
 										}
 										if (currentParticipantIds.contains(id)) {
 											continue;
 										}
+										ghostIds.add(id);
+									}
+									if (ghostIds.isEmpty()) {
+										continue;
+									}
 
-										JID jid = mixRepository.getTempParticipantJID(channel, id);
+									Map<String, JID> jids = mixRepository.getTempParticipantJIDs(channel, ghostIds);
+									for (String id : ghostIds) {
+										JID jid = jids.get(id);
 										if (jid != null) {
 											eventBus.fire(new KickoutEvent(component.getName(), channel, jid));
 										} else {
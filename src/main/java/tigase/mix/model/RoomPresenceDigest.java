@@ -0,0 +1,164 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import tigase.component.PacketWriter;
+import tigase.component.ScheduledTask;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.mix.modules.RoomPresenceModule;
+import tigase.server.Packet;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects joins and leaves of participants of large rooms and periodically sends them to occupants. Each change is
+ * still sent to each occupant as a separate MUC presence (there is no MUC payload aggregating presences), so the
+ * digest only delays changes and drops participants who joined and left (or left and joined) between digests. Changes
+ * over the limit of a single digest are sent with the next digest.
+ */
+@Bean(name = "roomPresenceDigest", parent = RoomPresenceModule.class, active = true)
+public class RoomPresenceDigest
+		extends ScheduledTask {
+
+	private static final Logger log = Logger.getLogger(RoomPresenceDigest.class.getCanonicalName());
+
+	private final ConcurrentHashMap<BareJID, Map<String, Change>> pendingChanges = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Maximal number of presence changes sent in a single digest of a channel")
+	private int maxChanges = 50;
+	@Inject
+	private PacketWriter packetWriter;
+	@Inject
+	private RoomPresenceRepository roomPresenceRepository;
+	private OccupantWriter occupantWriter;
+
+	public RoomPresenceDigest() {
+		super(Duration.ofSeconds(30), Duration.ofSeconds(30));
+	}
+
+	/**
+	 * Sets writer used to send presences to occupants, so that they are ordered with other packets sent to them.
+	 */
+	public void setOccupantWriter(OccupantWriter occupantWriter) {
+		this.occupantWriter = occupantWriter;
+	}
+
+	public void participantChanged(BareJID channelJID, JID occupantJID, String nick, boolean available) {
+		pendingChanges.compute(channelJID, (jid, changes) -> {
+			Map<String, Change> result = changes == null ? new LinkedHashMap<>() : changes;
+			addChange(result, nick, new Change(occupantJID, available));
+			return result.isEmpty() ? null : result;
+		});
+	}
+
+	private static void addChange(Map<String, Change> changes, String nick, Change change) {
+		Change previous = changes.get(nick);
+		if (previous != null && previous.available != change.available) {
+			// pair of join and leave cancels itself
+			changes.remove(nick);
+		} else {
+			changes.put(nick, change);
+		}
+	}
+
+	@Override
+	public void run() {
+		for (BareJID channelJID : new ArrayList<>(pendingChanges.keySet())) {
+			Map<String, Change> changes = pendingChanges.remove(channelJID);
+			if (changes == null) {
+				continue;
+			}
+			try {
+				Map<String, Change> remaining = sendDigest(channelJID, changes);
+				if (!remaining.isEmpty()) {
+					// changes made after we took the remaining ones are newer, so they are applied on top of them
+					pendingChanges.compute(channelJID, (jid, newer) -> {
+						Map<String, Change> result = new LinkedHashMap<>(remaining);
+						if (newer != null) {
+							newer.forEach((nick, change) -> addChange(result, nick, change));
+						}
+						return result.isEmpty() ? null : result;
+					});
+				}
+			} catch (Throwable ex) {
+				log.log(Level.FINEST, "exception during sending presence digest for channel " + channelJID, ex);
+			}
+		}
+	}
+
+	/**
+	 * Sends up to <code>maxChanges</code> changes and returns changes which were not sent.
+	 */
+	protected Map<String, Change> sendDigest(BareJID channelJID, Map<String, Change> changes) {
+		Collection<JID> occupants = roomPresenceRepository.getRoomParticipantJids(channelJID);
+		if (occupants.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, Change> remaining = new LinkedHashMap<>();
+		int sent = 0;
+		for (Map.Entry<String, Change> e : changes.entrySet()) {
+			if (sent >= maxChanges) {
+				remaining.put(e.getKey(), e.getValue());
+				continue;
+			}
+			sent++;
+			JID from = JID.jidInstanceNS(channelJID, e.getKey());
+			for (JID recipient : occupants) {
+				if (recipient.equals(e.getValue().occupantJID)) {
+					continue;
+				}
+				Packet presence = Packet.packetInstance(RoomPresenceModule.preparePresence(e.getValue().available, false),
+														from, recipient);
+				if (occupantWriter != null) {
+					occupantWriter.write(channelJID, recipient, presence);
+				} else {
+					packetWriter.write(presence);
+				}
+			}
+		}
+		if (!remaining.isEmpty() && log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "postponing " + remaining.size() + " presence changes in channel " + channelJID);
+		}
+		return remaining;
+	}
+
+	@FunctionalInterface
+	public interface OccupantWriter {
+
+		void write(BareJID channelJID, JID occupantJID, Packet packet);
+
+	}
+
+	protected static class Change {
+
+		private final JID occupantJID;
+		private final boolean available;
+
+		private Change(JID occupantJID, boolean available) {
+			this.occupantJID = occupantJID;
+			this.available = available;
+		}
+	}
+}
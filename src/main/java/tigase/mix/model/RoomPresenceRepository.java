@@ -37,31 +37,61 @@ public class RoomPresenceRepository {
 	@Inject
 	private MixLogic mixLogic;
 	@Inject
-	private RoomGhostbuster ghostbuster;
+	protected RoomGhostbuster ghostbuster;
 
 	public void addTempParticipant(BareJID channelJID, JID occupantJID, String nickname) {
+		addOccupant(channelJID, occupantJID, nickname);
+		if (isResponsibleFor(channelJID)) {
+			ghostbuster.register(channelJID, occupantJID);
+		}
+	}
+
+	public void removeTempParticipant(BareJID channelJID, JID occupantJID, String nickname) {
+		JID removed = removeOccupant(channelJID, occupantJID, nickname);
+		if (removed != null) {
+			ghostbuster.unregister(channelJID, removed);
+		}
+	}
+
+	/**
+	 * Checks if component is running in the cluster mode.
+	 */
+	public boolean isClustered() {
+		return false;
+	}
+
+	/**
+	 * Checks if there are other cluster nodes sharing occupants of the channels.
+	 */
+	public boolean hasRemoteNodes() {
+		return false;
+	}
+
+	/**
+	 * Checks if this node is responsible for broadcasting to occupants of the channel and for cleaning up its
+	 * occupants.
+	 */
+	public boolean isResponsibleFor(BareJID channelJID) {
+		return true;
+	}
+
+	protected void addOccupant(BareJID channelJID, JID occupantJID, String nickname) {
 		Map<String, JID> participants = tempParticipants.computeIfAbsent(channelJID, k -> new ConcurrentHashMap<>());
 		participants.put(nickname, occupantJID);
-		ghostbuster.register(channelJID, occupantJID);
 	}
 
-	public void removeTempParticipant(BareJID channelJID, JID occupantJID, String nickname) {
+	protected JID removeOccupant(BareJID channelJID, JID occupantJID, String nickname) {
 		Map<String, JID> participants = tempParticipants.get(channelJID);
-		if (participants != null) {
-			if (nickname != null) {
-				JID removed = participants.remove(nickname);
-				if (removed != null) {
-					ghostbuster.unregister(channelJID, removed);
-				}
-			} else {
-				Optional<String> nicknameOptional = participants.entrySet().stream().filter(e -> occupantJID.equals(e.getValue())).map(
-						Map.Entry::getKey).findFirst();
-				nicknameOptional.ifPresent( nick -> {
-					participants.remove(nick);
-				});
-				ghostbuster.unregister(channelJID, occupantJID);
-			}
+		if (participants == null) {
+			return null;
+		}
+		if (nickname != null) {
+			return participants.remove(nickname);
 		}
+		Optional<String> nicknameOptional = participants.entrySet().stream().filter(e -> occupantJID.equals(e.getValue())).map(
+				Map.Entry::getKey).findFirst();
+		nicknameOptional.ifPresent(participants::remove);
+		return occupantJID;
 	}
 
 	public boolean isNicknameInUse(BareJID channelJID, JID occupantJID, String nickname) {
@@ -80,6 +110,10 @@ public class RoomPresenceRepository {
 		return Optional.ofNullable(tempParticipants.get(channelJID)).map(Map::values).orElse(Collections.emptyList());
 	}
 
+	public int getOccupantsCount(BareJID channelJID) {
+		return Optional.ofNullable(tempParticipants.get(channelJID)).map(Map::size).orElse(0);
+	}
+
 	public Set<String> getRoomParticipantsIds(BareJID channelJID) {
 		Map<String, JID> participants = tempParticipants.get(channelJID);
 		if (participants == null) {
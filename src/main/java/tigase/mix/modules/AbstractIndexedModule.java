@@ -0,0 +1,56 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.modules;
+
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.pubsub.AbstractPubSubModule;
+import tigase.server.Packet;
+
+/**
+ * Base class for MIX modules registering routes they handle in {@link ModuleDispatchIndex}. Packets which do not match
+ * any of the routes are rejected without checking the module criteria.
+ */
+public abstract class AbstractIndexedModule extends AbstractPubSubModule implements Initializable {
+
+	@Inject
+	private ModuleDispatchIndex dispatchIndex;
+
+	@Override
+	public boolean canHandle(Packet packet) {
+		if (!dispatchIndex.isCandidate(packet, this) || !matches(packet)) {
+			return false;
+		}
+		dispatchIndex.markDispatched(this);
+		return true;
+	}
+
+	@Override
+	public void initialize() {
+		dispatchIndex.register(this, getDispatchRoutes());
+	}
+
+	protected abstract ModuleDispatchIndex.Route[] getDispatchRoutes();
+
+	/**
+	 * Checks if packet matches criteria of the module. Called only for packets matching routes of the module.
+	 */
+	protected boolean matches(Packet packet) {
+		return super.canHandle(packet);
+	}
+}
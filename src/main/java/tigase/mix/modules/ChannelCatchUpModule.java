@@ -0,0 +1,116 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.modules;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+import tigase.criteria.Criteria;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.mix.IMixComponent;
+import tigase.mix.model.ChannelSequences;
+import tigase.mix.model.IMixRepository;
+import tigase.mix.model.MixLogic;
+import tigase.mix.model.RoomPresenceRepository;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.BareJID;
+
+/**
+ * Returns messages published in the channel after the message with the sequence number passed by the client, as long as
+ * they are still kept in memory. Otherwise, result is marked as incomplete and client should use MAM.
+ * <br>
+ * Feature is not available in the cluster mode, as sequence numbers are not assigned there.
+ */
+@Bean(name = "channelCatchUpModule", parent = IMixComponent.class, active = true)
+public class ChannelCatchUpModule
+		extends AbstractIndexedModule {
+
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.get, "catchup", ChannelSequences.XMLNS) };
+	private static final Criteria CRIT_CATCHUP = ModuleDispatchIndex.Route.criteria(ROUTES);
+	private static final String[] FEATURES = { ChannelSequences.XMLNS };
+
+	@Inject
+	private ChannelSequences channelSequences;
+	@Inject
+	private MixLogic mixLogic;
+	@Inject
+	private IMixRepository mixRepository;
+	@Inject(nullAllowed = true)
+	private RoomPresenceRepository roomPresenceRepository;
+
+	@Override
+	public String[] getFeatures() {
+		return channelSequences.isEnabled() ? FEATURES : new String[0];
+	}
+
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
+	@Override
+	public Criteria getModuleCriteria() {
+		return CRIT_CATCHUP;
+	}
+
+	@Override
+	public void process(Packet packet) throws ComponentException, TigaseStringprepException {
+		if (!channelSequences.isEnabled()) {
+			throw new PubSubException(Authorization.FEATURE_NOT_IMPLEMENTED);
+		}
+		if (packet.getStanzaTo().getLocalpart() == null) {
+			throw new PubSubException(Authorization.BAD_REQUEST);
+		}
+
+		BareJID channelJID = packet.getStanzaTo().getBareJID();
+		BareJID senderJID = packet.getStanzaFrom().getBareJID();
+
+		long after;
+		try {
+			after = Long.parseLong(packet.getElemChild("catchup", ChannelSequences.XMLNS).getAttributeStaticStr("after"));
+		} catch (NumberFormatException ex) {
+			throw new PubSubException(Authorization.BAD_REQUEST, "Invalid value of `after` attribute!");
+		}
+
+		try {
+			boolean isOccupant = roomPresenceRepository != null &&
+					roomPresenceRepository.isParticipant(channelJID, packet.getStanzaFrom());
+			if (!isOccupant && mixRepository.getParticipant(channelJID, senderJID) == null) {
+				throw new PubSubException(Authorization.FORBIDDEN);
+			}
+
+			ChannelSequences.CatchUp catchUp = channelSequences.getMessagesAfter(channelJID, after);
+			Element catchupEl = new Element("catchup", new String[]{"xmlns", "after", "last", "complete"},
+											new String[]{ChannelSequences.XMLNS, String.valueOf(after),
+														 String.valueOf(catchUp.getLast()),
+														 String.valueOf(catchUp.isComplete())});
+			for (Element message : catchUp.getMessages()) {
+				catchupEl.addChild(message);
+			}
+			packetWriter.write(packet.okResult(catchupEl, 0));
+		} catch (RepositoryException ex) {
+			throw new PubSubException(Authorization.INTERNAL_SERVER_ERROR, ex.getMessage(), ex);
+		}
+	}
+}
@@ -20,7 +20,6 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
@@ -28,7 +27,6 @@ import tigase.mix.Mix;
 import tigase.mix.model.ChannelConfiguration;
 import tigase.mix.model.MixAction;
 import tigase.mix.model.MixLogic;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.LeafNodeConfig;
 import tigase.pubsub.NodeType;
 import tigase.pubsub.exceptions.PubSubException;
@@ -41,6 +39,7 @@ import tigase.util.datetime.TimestampHelper;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Collections;
@@ -48,10 +47,11 @@ import java.util.Date;
 import java.util.UUID;
 
 @Bean(name="channelCreateModule", parent = IMixComponent.class, active = true)
-public class ChannelCreateModule extends AbstractPubSubModule {
+public class ChannelCreateModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_CREATE = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("create", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "create", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_CREATE = ModuleDispatchIndex.Route.criteria(ROUTES);
 	private static final String[] CREATE_PATH = new String[] { Iq.ELEM_NAME, "create" };
 
 	private static final tigase.util.datetime.TimestampHelper timestampHelper = new TimestampHelper();
@@ -59,6 +59,11 @@ public class ChannelCreateModule extends AbstractPubSubModule {
 	@Inject
 	private MixLogic mixLogic;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_CREATE;
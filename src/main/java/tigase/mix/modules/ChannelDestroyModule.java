@@ -20,7 +20,6 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
@@ -28,7 +27,6 @@ import tigase.mix.Mix;
 import tigase.mix.model.MixAction;
 import tigase.mix.model.MixLogic;
 import tigase.pubsub.AbstractNodeConfig;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.modules.PublishItemModule;
 import tigase.server.Iq;
@@ -36,13 +34,15 @@ import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 @Bean(name="channelDestroyModule", parent = IMixComponent.class, active = true)
-public class ChannelDestroyModule extends AbstractPubSubModule {
+public class ChannelDestroyModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_DESTROY = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("destroy", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "destroy", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_DESTROY = ModuleDispatchIndex.Route.criteria(ROUTES);
 	private static final String[] DESTROY_PATH = new String[] {Iq.ELEM_NAME, "destroy" };
 
 	@Inject
@@ -50,6 +50,11 @@ public class ChannelDestroyModule extends AbstractPubSubModule {
 	@Inject
 	private PublishItemModule publishModule;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_DESTROY;
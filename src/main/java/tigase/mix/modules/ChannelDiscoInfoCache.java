@@ -0,0 +1,116 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.modules;
+
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.mix.IMixComponent;
+import tigase.mix.MixConfig;
+import tigase.mix.model.MixRepository;
+import tigase.pubsub.utils.Cache;
+import tigase.pubsub.utils.LRUCacheWithFuture;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Cache of disco#info responses of channels. Response depends only on the channel and on the relation of the requester
+ * to the channel, so it is cached for each of them until information or configuration of the channel changes.
+ */
+@Bean(name = "channelDiscoInfoCache", parent = IMixComponent.class, active = true)
+public class ChannelDiscoInfoCache
+		implements Initializable, UnregisterAware {
+
+	public enum RequesterClass {
+		owner,
+		admin,
+		other
+	}
+
+	private final Cache<Key, Element> responses = new LRUCacheWithFuture<>(3000);
+	@Inject
+	private EventBus eventBus;
+	@Inject
+	private MixConfig mixConfig;
+
+	/**
+	 * Returns cached content of disco#info response (or creates it using the supplier). Returned element may be
+	 * shared and must not be modified.
+	 */
+	public Element getDiscoInfo(BareJID channelJID, RequesterClass requesterClass, Supplier<Element> supplier)
+			throws Cache.CacheException {
+		return responses.computeIfAbsent(new Key(channelJID, requesterClass), supplier::get);
+	}
+
+	public void invalidate(BareJID channelJID) {
+		for (RequesterClass requesterClass : RequesterClass.values()) {
+			responses.remove(new Key(channelJID, requesterClass));
+		}
+	}
+
+	@HandleEvent
+	public void handleChannelInfoChangedEvent(MixRepository.ChannelInfoChangedEvent event) {
+		if (!Objects.equals(event.getComponentName(), mixConfig.getComponentName())) {
+			return;
+		}
+		invalidate(event.getChannelJID());
+	}
+
+	@Override
+	public void initialize() {
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (eventBus != null) {
+			eventBus.unregisterAll(this);
+		}
+	}
+
+	private static class Key {
+
+		private final BareJID channelJID;
+		private final RequesterClass requesterClass;
+
+		private Key(BareJID channelJID, RequesterClass requesterClass) {
+			this.channelJID = channelJID;
+			this.requesterClass = requesterClass;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) o;
+			return channelJID.equals(that.channelJID) && requesterClass == that.requesterClass;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(channelJID, requesterClass);
+		}
+	}
+}
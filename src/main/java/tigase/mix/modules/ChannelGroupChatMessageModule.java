@@ -20,14 +20,12 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.eventbus.EventBus;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
 import tigase.mix.Mix;
 import tigase.mix.model.*;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.modules.PublishItemModule;
 import tigase.pubsub.repository.IExtenedMAMPubSubRepository;
@@ -37,6 +35,7 @@ import tigase.util.datetime.TimestampHelper;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 import tigase.xmpp.mam.MAMRepository;
@@ -47,9 +46,11 @@ import java.util.Optional;
 import java.util.UUID;
 
 @Bean(name="channelGroupChatMessageModule", parent = IMixComponent.class, active = true)
-public class ChannelGroupChatMessageModule extends AbstractPubSubModule {
+public class ChannelGroupChatMessageModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_LEAVE = ElementCriteria.nameType("message", "groupchat");
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameType("message", StanzaType.groupchat) };
+	private static final Criteria CRIT_LEAVE = ModuleDispatchIndex.Route.criteria(ROUTES);
 
 	private static final String[] FEATURES = { "urn:xmpp:mix:core:1" };
 
@@ -71,6 +72,9 @@ public class ChannelGroupChatMessageModule extends AbstractPubSubModule {
 	@Inject(nullAllowed = true)
 	private RoomPresenceModule roomPresenceModule;
 
+	@Inject(nullAllowed = true)
+	private ChannelSequences channelSequences;
+
 	private final TimestampHelper timestampHelper = new TimestampHelper();
 
 	@Override
@@ -78,6 +82,11 @@ public class ChannelGroupChatMessageModule extends AbstractPubSubModule {
 		return FEATURES;
 	}
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_LEAVE;
@@ -104,7 +113,7 @@ public class ChannelGroupChatMessageModule extends AbstractPubSubModule {
 			}
 
 			if (participant == null) {
-				throw new PubSubException(Authorization.FORBIDDEN);
+				throw new AccessDeniedException(Authorization.FORBIDDEN);
 			}
 
 			Element retract = packet.getElemChild("retract", "urn:xmpp:mix:misc:0");
@@ -167,7 +176,13 @@ public class ChannelGroupChatMessageModule extends AbstractPubSubModule {
 																	   timestampHelper.formatWithMs(new Date())})));
 				((IExtenedMAMPubSubRepository) getRepository()).updateMAMItem(channelJID, Mix.Nodes.MESSAGES, retractionId, retracted);
 			}
-			getRepository().addMAMItem(channelJID, Mix.Nodes.MESSAGES, uuid, message, null);
+			if (channelSequences != null && channelSequences.isEnabled()) {
+				channelSequences.assign(channelJID, message,
+										archived -> getRepository().addMAMItem(channelJID, Mix.Nodes.MESSAGES, uuid,
+																			   archived, null));
+			} else {
+				getRepository().addMAMItem(channelJID, Mix.Nodes.MESSAGES, uuid, message, null);
+			}
 			eventBus.fire(new PublishItemModule.BroadcastNotificationEvent(config.getComponentName(), channelJID, Mix.Nodes.MESSAGES, message));
 			publishItemModule.broadcastNotification(Executor.Priority.normal, channelJID, Mix.Nodes.MESSAGES, message);
 			if (roomPresenceModule != null) {
@@ -20,31 +20,30 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.*;
 import tigase.mix.model.*;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.Subscription;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.modules.PublishItemModule;
-import tigase.pubsub.repository.ISubscriptions;
 import tigase.pubsub.utils.PubSubLogic;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Iterator;
 import java.util.List;
 
 @Bean(name="channelJoinModule", parent = IMixComponent.class, active = true)
-public class ChannelJoinModule extends AbstractPubSubModule {
+public class ChannelJoinModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_JOIN = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("join", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "join", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_JOIN = ModuleDispatchIndex.Route.criteria(ROUTES);
 
 	@Inject
 	private MixLogic mixLogic;
@@ -55,6 +54,11 @@ public class ChannelJoinModule extends AbstractPubSubModule {
 	@Inject
 	private PublishItemModule publishItemModule;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_JOIN;
@@ -95,21 +99,15 @@ public class ChannelJoinModule extends AbstractPubSubModule {
 				while (it.hasNext()) {
 					try {
 						String node = it.next();
-						mixLogic.checkPermission(channelJID, node, packet.getStanzaFrom(), PubSubLogic.Action.subscribe);
-
-						ISubscriptions subscriptions = getRepository().getNodeSubscriptions(channelJID, node);
-						if (subscriptions == null) {
+						if (!mixLogic.decideNodePermission(channelJID, node, packet.getStanzaFrom(),
+														   PubSubLogic.Action.subscribe).isAllowed()) {
 							it.remove();
-							break;
-						}
-						if (subscriptions.getSubscription(senderJID) == Subscription.none) {
-							subscriptions.addSubscriberJid(senderJID, Subscription.subscribed);
-							getRepository().update(channelJID, node, subscriptions);
 						}
 					} catch (Throwable ex) {
 						it.remove();
 					}
 				}
+				nodes = mixRepository.updateSubscriptions(channelJID, senderJID, nodes, Subscription.subscribed);
 			}
 
 			Element responseContent = new Element("join", new String[]{"xmlns", "id"},
@@ -20,7 +20,6 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
@@ -28,24 +27,24 @@ import tigase.mix.Mix;
 import tigase.mix.model.IMixRepository;
 import tigase.mix.model.IParticipant;
 import tigase.mix.model.MixLogic;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.Subscription;
 import tigase.pubsub.exceptions.PubSubException;
-import tigase.pubsub.repository.ISubscriptions;
 import tigase.pubsub.repository.stateless.UsersSubscription;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Map;
 
 @Bean(name="channelLeaveModule", parent = IMixComponent.class, active = true)
-public class ChannelLeaveModule extends AbstractPubSubModule {
+public class ChannelLeaveModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_LEAVE = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("leave", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "leave", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_LEAVE = ModuleDispatchIndex.Route.criteria(ROUTES);
 
 	@Inject
 	private MixLogic mixLogic;
@@ -56,6 +55,11 @@ public class ChannelLeaveModule extends AbstractPubSubModule {
 	@Inject(nullAllowed = true)
 	private RoomPresenceModule roomPresenceModule;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_LEAVE;
@@ -73,11 +77,7 @@ public class ChannelLeaveModule extends AbstractPubSubModule {
 
 			Map<String, UsersSubscription> userSubscriptions = getRepository().getUserSubscriptions(channelJID,
 																									senderJID);
-			for (String node : userSubscriptions.keySet()) {
-				ISubscriptions subscriptions = getRepository().getNodeSubscriptions(channelJID, node);
-				subscriptions.changeSubscription(senderJID, Subscription.none);
-				getRepository().update(channelJID, node, subscriptions);
-			}
+			mixRepository.updateSubscriptions(channelJID, senderJID, userSubscriptions.keySet(), Subscription.none);
 
 			IParticipant participant = (roomPresenceModule != null) ? mixRepository.getParticipant(channelJID, senderJID) : null;
 			mixRepository.removeParticipant(channelJID, senderJID);
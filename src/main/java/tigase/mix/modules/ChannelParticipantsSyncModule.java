@@ -0,0 +1,124 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.modules;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+import tigase.criteria.Criteria;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.mix.IMixComponent;
+import tigase.mix.model.IMixRepository;
+import tigase.mix.model.IParticipant;
+import tigase.mix.model.ParticipantsChangeLog;
+import tigase.mix.model.RoomPresenceRepository;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Collection;
+
+/**
+ * Returns participants of the channel changed (and removed) since the version of the participants list known to the
+ * client. If changes are not known anymore, full list of participants is returned.
+ */
+@Bean(name = "channelParticipantsSyncModule", parent = IMixComponent.class, active = true)
+public class ChannelParticipantsSyncModule
+		extends AbstractIndexedModule {
+
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.get, "participants-sync",
+													ParticipantsChangeLog.XMLNS) };
+	private static final Criteria CRIT_SYNC = ModuleDispatchIndex.Route.criteria(ROUTES);
+	private static final String[] FEATURES = { ParticipantsChangeLog.XMLNS };
+
+	@Inject
+	private IMixRepository mixRepository;
+	@Inject
+	private ParticipantsChangeLog participantsChangeLog;
+	@Inject(nullAllowed = true)
+	private RoomPresenceRepository roomPresenceRepository;
+
+	@Override
+	public String[] getFeatures() {
+		return FEATURES;
+	}
+
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
+	@Override
+	public Criteria getModuleCriteria() {
+		return CRIT_SYNC;
+	}
+
+	@Override
+	public void process(Packet packet) throws ComponentException, TigaseStringprepException {
+		if (packet.getStanzaTo().getLocalpart() == null) {
+			throw new PubSubException(Authorization.BAD_REQUEST);
+		}
+
+		BareJID channelJID = packet.getStanzaTo().getBareJID();
+		BareJID senderJID = packet.getStanzaFrom().getBareJID();
+		String version = packet.getElemChild("participants-sync", ParticipantsChangeLog.XMLNS)
+				.getAttributeStaticStr("version");
+
+		try {
+			boolean isOccupant = roomPresenceRepository != null &&
+					roomPresenceRepository.isParticipant(channelJID, packet.getStanzaFrom());
+			if (!isOccupant && mixRepository.getParticipant(channelJID, senderJID) == null) {
+				throw new PubSubException(Authorization.FORBIDDEN);
+			}
+
+			Element syncEl = new Element("participants-sync");
+			syncEl.setXMLNS(ParticipantsChangeLog.XMLNS);
+			ParticipantsChangeLog.Delta delta = participantsChangeLog.getChangesSince(channelJID, version);
+			if (delta != null) {
+				syncEl.setAttribute("version", delta.getVersion());
+				syncEl.setAttribute("full", "false");
+				addParticipants(syncEl, channelJID, delta.getUpdated());
+				for (String participantId : delta.getRemoved()) {
+					syncEl.addChild(new Element("retract", new String[]{"id"}, new String[]{participantId}));
+				}
+			} else {
+				// version needs to be retrieved before participants, so no change will be missed
+				syncEl.setAttribute("version", participantsChangeLog.getVersion(channelJID));
+				syncEl.setAttribute("full", "true");
+				addParticipants(syncEl, channelJID, mixRepository.getParticipantIds(channelJID));
+			}
+			packetWriter.write(packet.okResult(syncEl, 0));
+		} catch (RepositoryException ex) {
+			throw new PubSubException(Authorization.INTERNAL_SERVER_ERROR, ex.getMessage(), ex);
+		}
+	}
+
+	private void addParticipants(Element syncEl, BareJID channelJID, Collection<String> participantIds)
+			throws RepositoryException {
+		for (IParticipant participant : mixRepository.getParticipants(channelJID, participantIds).values()) {
+			Element itemEl = new Element("item", new String[]{"id"}, new String[]{participant.getParticipantId()});
+			itemEl.addChild(participant.toElement());
+			syncEl.addChild(itemEl);
+		}
+	}
+}
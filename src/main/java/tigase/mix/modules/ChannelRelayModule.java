@@ -24,7 +24,7 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
 import tigase.mix.model.*;
-import tigase.pubsub.AbstractPubSubModule;
+import tigase.mix.util.MixAddress;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
@@ -34,7 +34,7 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 @Bean(name="channelRelayModule", parent = IMixComponent.class, active = true)
-public class ChannelRelayModule extends AbstractPubSubModule {
+public class ChannelRelayModule extends AbstractIndexedModule {
 
 	private static final Criteria CRIT_RELAY = new Criteria() {
 		@Override
@@ -47,51 +47,42 @@ public class ChannelRelayModule extends AbstractPubSubModule {
 			if (element.getName() != "iq" && element.getName() != "presence") {
 				return false;
 			}
-			String to = element.getAttributeStaticStr("to");
-			if (to == null) {
-				return false;
-			}
-			JID jid = JID.jidInstanceNS(to);
-			if (jid.getLocalpart() == null) {
-				return false;
-			}
-			return jid.getLocalpart().contains("#");
+			return MixAddress.kindOf(element) == MixAddress.Kind.relay;
 		}
 	};
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.name("iq"),
+			ModuleDispatchIndex.Route.name("message") };
 
 	@Inject
 	private MixRepository mixRepository;
 	@Inject
 	private MixLogic mixLogic;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_RELAY;
 	}
 
 	@Override
-	public boolean canHandle(Packet packet) {
-		if (packet.getElemName() != "iq" && packet.getElemName() != "message") {
-			return false;
-		}
-		JID jid = packet.getStanzaTo();
-		if (jid == null || jid.getLocalpart() == null) {
-			return false;
-		}
-		return jid.getLocalpart().contains("#");
+	protected boolean matches(Packet packet) {
+		return MixAddress.of(packet).isRelay();
 	}
 	
 	@Override
 	public void process(Packet packet) throws ComponentException, TigaseStringprepException {
-		JID to = packet.getStanzaTo();
-		if (to == null || to.getLocalpart() == null) {
+		MixAddress address = MixAddress.of(packet);
+		if (!address.isRelay()) {
 			throw new PubSubException(Authorization.BAD_REQUEST);
 		}
 
-		int idx = to.getLocalpart().indexOf('#');
-		String recipientId = to.getLocalpart().substring(0, idx);
-
-		BareJID channelJID = BareJID.bareJIDInstanceNS(to.getLocalpart().substring(idx + 1), to.getDomain());
+		String recipientId = address.getParticipantId();
+		BareJID channelJID = address.getChannelJID();
 		BareJID senderJID = packet.getStanzaFrom().getBareJID();
 
 		try {
@@ -20,7 +20,6 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
@@ -29,27 +28,33 @@ import tigase.mix.model.IMixRepository;
 import tigase.mix.model.IParticipant;
 import tigase.mix.model.MixAction;
 import tigase.mix.model.MixLogic;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Optional;
 
 @Bean(name="channelSetNickModule", parent = IMixComponent.class, active = true)
-public class ChannelSetNickModule extends AbstractPubSubModule {
+public class ChannelSetNickModule extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_SETNICK = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("setnick", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "setnick", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_SETNICK = ModuleDispatchIndex.Route.criteria(ROUTES);
 	
 	@Inject
 	private MixLogic mixLogic;
 	@Inject
 	private IMixRepository mixRepository;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_SETNICK;
@@ -20,7 +20,6 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.mix.IMixComponent;
@@ -28,31 +27,36 @@ import tigase.mix.Mix;
 import tigase.mix.model.IMixRepository;
 import tigase.mix.model.MixAction;
 import tigase.mix.model.MixLogic;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.Subscription;
 import tigase.pubsub.exceptions.PubSubException;
-import tigase.pubsub.repository.ISubscriptions;
 import tigase.pubsub.utils.PubSubLogic;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Iterator;
 import java.util.List;
 
 @Bean(name="channelUpdateSubscriptionkModule", parent = IMixComponent.class, active = true)
-public class ChannelUpdateSubscription extends AbstractPubSubModule {
+public class ChannelUpdateSubscription extends AbstractIndexedModule {
 
-	private static final Criteria CRIT_UPDATE_SUBSCRIPTION = ElementCriteria.nameType("iq", "set")
-			.add(ElementCriteria.name("update-subscription", Mix.CORE1_XMLNS));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.set, "update-subscription", Mix.CORE1_XMLNS) };
+	private static final Criteria CRIT_UPDATE_SUBSCRIPTION = ModuleDispatchIndex.Route.criteria(ROUTES);
 
 	@Inject
 	private MixLogic mixLogic;
 	@Inject
 	private IMixRepository mixRepository;
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT_UPDATE_SUBSCRIPTION;
@@ -78,22 +82,15 @@ public class ChannelUpdateSubscription extends AbstractPubSubModule {
 				while (it.hasNext()) {
 					try {
 						String node = it.next();
-						mixLogic.checkPermission(channelJID, node, packet.getStanzaFrom(),
-												 PubSubLogic.Action.subscribe);
-
-						ISubscriptions subscriptions = getRepository().getNodeSubscriptions(channelJID, node);
-						if (subscriptions == null) {
+						if (!mixLogic.decideNodePermission(channelJID, node, packet.getStanzaFrom(),
+														   PubSubLogic.Action.subscribe).isAllowed()) {
 							it.remove();
-							break;
-						}
-						if (subscriptions.getSubscription(senderJID) == Subscription.none) {
-							subscriptions.addSubscriberJid(senderJID, Subscription.subscribed);
-							getRepository().update(channelJID, node, subscriptions);
 						}
 					} catch (Throwable ex) {
 						it.remove();
 					}
 				}
+				nodes = mixRepository.updateSubscriptions(channelJID, senderJID, nodes, Subscription.subscribed);
 			}
 			Element responseContent = new Element("update-subscription", new String[]{"xmlns", "jid"},
 												  new String[]{Mix.CORE1_XMLNS, senderJID.toString()});
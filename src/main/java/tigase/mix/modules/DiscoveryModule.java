@@ -24,12 +24,18 @@ import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.mix.IMixComponent;
 import tigase.component.modules.impl.AdHocCommandModule;
+import tigase.mix.model.ChannelConfiguration;
 import tigase.mix.model.IMixRepository;
 import tigase.mix.model.MixLogic;
+import tigase.mix.model.PermissionDecision;
+import tigase.mix.model.RoomPresenceRepository;
 import tigase.pubsub.AbstractNodeConfig;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.repository.IPubSubRepository;
+import tigase.pubsub.utils.Cache;
 import tigase.pubsub.utils.PubSubLogic;
+import tigase.server.Command;
+import tigase.server.DataForm;
 import tigase.server.Packet;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
@@ -55,6 +61,8 @@ public class DiscoveryModule extends tigase.pubsub.modules.DiscoveryModule {
 																   DISCO_ITEMS_XMLNS, AdHocCommandModule.XMLNS,
 																   DISCO_INFO_XMLNS);
 
+	private static final String MUC_ROOMINFO_XMLNS = "http://jabber.org/protocol/muc#roominfo";
+
 	@ConfigField(desc = "Allow disco#items for nodes without node attribute set")
 	private boolean allowDiscoitems = false;
 
@@ -70,7 +78,11 @@ public class DiscoveryModule extends tigase.pubsub.modules.DiscoveryModule {
 	@Inject(nullAllowed = true)
 	private RoomPresenceModule roomPresenceModule;
 	@Inject(nullAllowed = true)
+	private RoomPresenceRepository roomPresenceRepository;
+	@Inject(nullAllowed = true)
 	private AdHocCommandModule adHocCommandModule;
+	@Inject(nullAllowed = true)
+	private ChannelDiscoInfoCache channelDiscoInfoCache;
 
 	@Override
 	public Set<String> getAvailableFeatures(BareJID serviceJID, String node, BareJID senderJID) {
@@ -95,37 +107,92 @@ public class DiscoveryModule extends tigase.pubsub.modules.DiscoveryModule {
 	@Override
 	protected Packet prepareDiscoInfoResponse(Packet packet, JID jid, String node, JID senderJID) {
 		if (node == null && jid.getLocalpart() != null) {
-			Element resultQuery = new Element("query", new String[]{"xmlns"},
-											  new String[]{"http://jabber.org/protocol/disco#info"});
-
-			Packet resultIq = packet.okResult(resultQuery, 0);
-			Element mixIdentity = new Element("identity", new String[]{"category", "type"},
-										   new String[]{"conference", "mix"});
-			Optional<Element> mucIdentity = Optional.ofNullable(roomPresenceModule).map(x -> new Element("identity", new String[]{"category", "type"},
-													   new String[]{"conference", "text"}));
+			Element resultQuery = null;
+			if (channelDiscoInfoCache != null) {
+				try {
+					resultQuery = channelDiscoInfoCache.getDiscoInfo(jid.getBareJID(),
+																	 getRequesterClass(jid.getBareJID(),
+																					   senderJID.getBareJID()),
+																	 () -> prepareChannelDiscoInfo(jid, senderJID))
+							.clone();
+				} catch (RepositoryException | Cache.CacheException ex) {
+					log.log(Level.FINEST, "Could not retrieve cached info for channel " + jid.toString(), ex);
+				}
+			}
+			if (resultQuery == null) {
+				resultQuery = prepareChannelDiscoInfo(jid, senderJID);
+			}
+			// counts change too often to be cached with the rest of the response
 			try {
-				Optional.ofNullable(mixRepository.getChannelName(jid.getBareJID())).filter(s -> !s.isEmpty()).ifPresent(name -> {
-					mixIdentity.setAttribute("name", name);
-					mucIdentity.ifPresent(identity -> identity.setAttribute("name", name));
-				});
+				resultQuery.addChild(prepareChannelCountsForm(jid.getBareJID()));
 			} catch (RepositoryException ex) {
-				log.log(Level.FINEST, "Could not retrieve info for channel " + jid.toString(), ex);
+				log.log(Level.FINEST, "Could not retrieve number of participants of channel " + jid.toString(), ex);
 			}
-			resultQuery.addChild(mixIdentity);
-			mucIdentity.ifPresent(resultQuery::addChild);
 
-			for (String f : getAvailableFeatures(jid.getBareJID(), node, senderJID.getBareJID())) {
-				resultQuery.addChild(new Element("feature", new String[]{"var"}, new String[]{f}));
+			return packet.okResult(resultQuery, 0);
+		} else {
+			return super.prepareDiscoInfoResponse(packet, jid, node, senderJID);
+		}
+	}
+
+	protected ChannelDiscoInfoCache.RequesterClass getRequesterClass(BareJID channelJID, BareJID senderJID)
+			throws RepositoryException {
+		ChannelConfiguration configuration = mixRepository.getChannelConfiguration(channelJID);
+		if (configuration != null) {
+			if (configuration.isOwner(senderJID)) {
+				return ChannelDiscoInfoCache.RequesterClass.owner;
 			}
-			Element form = component.getDiscoExtensionsForm(jid.getDomain());
-			if (form != null) {
-				resultQuery.addChild(form);
+			if (configuration.isAdministrator(senderJID)) {
+				return ChannelDiscoInfoCache.RequesterClass.admin;
 			}
+		}
+		return ChannelDiscoInfoCache.RequesterClass.other;
+	}
 
-			return resultIq;
-		} else {
-			return super.prepareDiscoInfoResponse(packet, jid, node, senderJID);
+	protected Element prepareChannelDiscoInfo(JID jid, JID senderJID) {
+		Element resultQuery = new Element("query", new String[]{"xmlns"},
+										  new String[]{"http://jabber.org/protocol/disco#info"});
+
+		Element mixIdentity = new Element("identity", new String[]{"category", "type"},
+									   new String[]{"conference", "mix"});
+		Optional<Element> mucIdentity = Optional.ofNullable(roomPresenceModule).map(x -> new Element("identity", new String[]{"category", "type"},
+												   new String[]{"conference", "text"}));
+		try {
+			Optional.ofNullable(mixRepository.getChannelName(jid.getBareJID())).filter(s -> !s.isEmpty()).ifPresent(name -> {
+				mixIdentity.setAttribute("name", name);
+				mucIdentity.ifPresent(identity -> identity.setAttribute("name", name));
+			});
+		} catch (RepositoryException ex) {
+			log.log(Level.FINEST, "Could not retrieve info for channel " + jid.toString(), ex);
+		}
+		resultQuery.addChild(mixIdentity);
+		mucIdentity.ifPresent(resultQuery::addChild);
+
+		for (String f : getAvailableFeatures(jid.getBareJID(), null, senderJID.getBareJID())) {
+			resultQuery.addChild(new Element("feature", new String[]{"var"}, new String[]{f}));
+		}
+		Element form = component.getDiscoExtensionsForm(jid.getDomain());
+		if (form != null) {
+			resultQuery.addChild(form);
 		}
+		return resultQuery;
+	}
+
+	protected Element prepareChannelCountsForm(BareJID channelJID) throws RepositoryException {
+		int participants = mixRepository.getParticipantsCount(channelJID);
+		return new DataForm.Builder(Command.DataType.result).withFields(builder -> {
+			builder.addField(DataForm.FieldType.Hidden, "FORM_TYPE").setValue(MUC_ROOMINFO_XMLNS).build();
+			if (roomPresenceRepository != null) {
+				builder.addField(DataForm.FieldType.TextSingle, "muc#roominfo_occupants")
+						.setLabel("Number of occupants")
+						.setValue(String.valueOf(roomPresenceRepository.getOccupantsCount(channelJID)))
+						.build();
+			}
+			builder.addField(DataForm.FieldType.TextSingle, "x-mix#participants")
+					.setLabel("Number of participants")
+					.setValue(String.valueOf(participants))
+					.build();
+		}).build();
 	}
 
 	@Override
@@ -214,15 +281,15 @@ public class DiscoveryModule extends tigase.pubsub.modules.DiscoveryModule {
 			return false;
 		}
 
-		try {
-			pubSubLogic.checkPermission(serviceJid, nodeConfig.getNodeName(), senderJid, PubSubLogic.Action.subscribe);
+		PermissionDecision decision = mixLogic.decidePermission(serviceJid, nodeConfig.getNodeName(), senderJid,
+																PubSubLogic.Action.subscribe);
+		if (decision.isAllowed()) {
 			return true;
-		} catch (PubSubException ex) {
-			return switch (ex.getErrorCondition()) {
-				case FORBIDDEN, NOT_AUTHORIZED, NOT_ALLOWED -> false;
-				default -> throw ex;
-			};
 		}
+		if (decision.isDenied()) {
+			return false;
+		}
+		throw new PubSubException(decision.getErrorCondition());
 	}
 
 }
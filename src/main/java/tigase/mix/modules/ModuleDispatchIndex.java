@@ -0,0 +1,247 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.modules;
+
+import tigase.criteria.Criteria;
+import tigase.criteria.ElementCriteria;
+import tigase.kernel.beans.Bean;
+import tigase.mix.IMixComponent;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Index of MIX modules by element name, stanza type and name and namespace of child elements.
+ * <br>
+ * Modules register routes they can handle during initialization (module criteria should be created from the same
+ * routes with {@link Route#criteria(Route...)}) and for each packet set of modules which may handle it is resolved
+ * once (with a few hash lookups for each child element) and reused by all modules, so modules which cannot handle the
+ * packet reject it without walking their criteria. Each module is still asked if it can handle the packet.
+ */
+@Bean(name = "moduleDispatchIndex", parent = IMixComponent.class, active = true)
+public class ModuleDispatchIndex {
+
+	private static final int MAX_RESOLVED_ROUTES = 1000;
+
+	private static final ThreadLocal<Resolved> CURRENT = new ThreadLocal<>();
+
+	private final Map<Route, Set<Object>> routes = new ConcurrentHashMap<>();
+	private final Map<Route, Set<Object>> resolvedRoutes = new ConcurrentHashMap<>();
+	private final Map<Object, LongAdder> dispatched = new ConcurrentHashMap<>();
+
+	/**
+	 * Forgets modules resolved for the last packet processed by the current thread.
+	 */
+	public static void clearResolved() {
+		CURRENT.remove();
+	}
+
+	public void register(Object module, Route... moduleRoutes) {
+		for (Route route : moduleRoutes) {
+			routes.computeIfAbsent(route, r -> ConcurrentHashMap.newKeySet()).add(module);
+		}
+		dispatched.computeIfAbsent(module, m -> new LongAdder());
+		resolvedRoutes.clear();
+	}
+
+	/**
+	 * Checks if module registered a route matching the packet. Module still needs to check its criteria.
+	 */
+	public boolean isCandidate(Packet packet, Object module) {
+		for (Set<Object> modules : resolve(packet)) {
+			if (modules.contains(module)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts packet as dispatched to the module (after module criteria matched the packet).
+	 */
+	public void markDispatched(Object module) {
+		LongAdder counter = dispatched.get(module);
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	public void forEachDispatchCounter(BiConsumer<String, Long> consumer) {
+		dispatched.forEach((module, counter) -> consumer.accept(module.getClass().getSimpleName(), counter.sum()));
+	}
+
+	/**
+	 * Returns sets of modules which may handle the packet, one for each child element of the packet (as module
+	 * criteria may match any child element).
+	 */
+	protected List<Set<Object>> resolve(Packet packet) {
+		Resolved resolved = CURRENT.get();
+		if (resolved != null && resolved.packet == packet) {
+			return resolved.modules;
+		}
+
+		String elemName = packet.getElemName();
+		StanzaType type = packet.getType();
+		List<Set<Object>> modules = new ArrayList<>(2);
+		packet.getElement().findChild(child -> {
+			modules.add(resolve(new Route(elemName, type, child.getName(), child.getXMLNS())));
+			return false;
+		});
+		if (modules.isEmpty()) {
+			modules.add(resolve(new Route(elemName, type, null, null)));
+		}
+		CURRENT.set(new Resolved(packet, modules));
+		return modules;
+	}
+
+	protected Set<Object> resolve(Route key) {
+		Set<Object> modules = resolvedRoutes.get(key);
+		if (modules == null) {
+			modules = merge(routes.get(key), routes.get(new Route(key.elemName, key.type, null, null)),
+							routes.get(new Route(key.elemName, null, key.childName, key.childXmlns)),
+							routes.get(new Route(key.elemName, null, null, null)));
+			// child name and namespace are provided by the sender, so we need to limit number of resolved routes
+			if (resolvedRoutes.size() < MAX_RESOLVED_ROUTES) {
+				resolvedRoutes.put(key, modules);
+			}
+		}
+		return modules;
+	}
+
+	@SafeVarargs
+	private static Set<Object> merge(Set<Object>... sets) {
+		Set<Object> first = null;
+		Set<Object> result = null;
+		for (Set<Object> set : sets) {
+			if (set == null || set.isEmpty() || set == first) {
+				continue;
+			}
+			if (first == null) {
+				first = set;
+			} else {
+				if (result == null) {
+					result = new HashSet<>(first);
+				}
+				result.addAll(set);
+			}
+		}
+		if (result != null) {
+			return Collections.unmodifiableSet(result);
+		}
+		// no need to copy modules if only a single route matches
+		return first == null ? Collections.emptySet() : Collections.unmodifiableSet(first);
+	}
+
+	/**
+	 * Route handled by a module. Fields set to <code>null</code> match any value, except for the child which must
+	 * have both name and namespace set or none of them.
+	 */
+	public static final class Route {
+
+		private final String elemName;
+		private final StanzaType type;
+		private final String childName;
+		private final String childXmlns;
+
+		/**
+		 * Creates module criteria matching packets matching any of the routes.
+		 */
+		public static Criteria criteria(Route... routes) {
+			if (routes.length == 1) {
+				return routes[0].toCriteria();
+			}
+			Criteria[] criteria = Arrays.stream(routes).map(Route::toCriteria).toArray(Criteria[]::new);
+			return new Criteria() {
+				@Override
+				public Criteria add(Criteria criteria) {
+					throw new UnsupportedOperationException("Criteria created from routes cannot be extended");
+				}
+
+				@Override
+				public boolean match(Element element) {
+					for (Criteria it : criteria) {
+						if (it.match(element)) {
+							return true;
+						}
+					}
+					return false;
+				}
+			};
+		}
+
+		public static Route name(String elemName) {
+			return new Route(elemName, null, null, null);
+		}
+
+		public static Route nameType(String elemName, StanzaType type) {
+			return new Route(elemName, type, null, null);
+		}
+
+		public static Route nameTypeChild(String elemName, StanzaType type, String childName, String childXmlns) {
+			return new Route(elemName, type, childName, childXmlns);
+		}
+
+		private Route(String elemName, StanzaType type, String childName, String childXmlns) {
+			this.elemName = elemName;
+			this.type = type;
+			this.childName = childName;
+			this.childXmlns = childXmlns;
+		}
+
+		public Criteria toCriteria() {
+			Criteria criteria = type == null
+								? ElementCriteria.name(elemName)
+								: ElementCriteria.nameType(elemName, type.name());
+			if (childName != null) {
+				criteria.add(ElementCriteria.name(childName, childXmlns));
+			}
+			return criteria;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Route)) {
+				return false;
+			}
+			Route that = (Route) o;
+			return Objects.equals(elemName, that.elemName) && type == that.type &&
+					Objects.equals(childName, that.childName) && Objects.equals(childXmlns, that.childXmlns);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(elemName, type, childName, childXmlns);
+		}
+	}
+
+	private static class Resolved {
+
+		private final Packet packet;
+		private final List<Set<Object>> modules;
+
+		private Resolved(Packet packet, List<Set<Object>> modules) {
+			this.packet = packet;
+			this.modules = modules;
+		}
+	}
+}
@@ -19,8 +19,8 @@ package tigase.mix.modules;
 
 import tigase.kernel.beans.Bean;
 import tigase.mix.IMixComponent;
+import tigase.mix.util.MixAddress;
 import tigase.server.Packet;
-import tigase.xmpp.jid.JID;
 
 import java.util.function.Predicate;
 
@@ -29,11 +29,6 @@ public class PubSubModulePredicate implements Predicate<Packet> {
 
 	@Override
 	public boolean test(Packet packet) {
-		JID jid = packet.getStanzaTo();
-		if (jid == null || jid.getLocalpart() == null) {
-			return true;
-		}
-		return !jid.getLocalpart().contains("#");
-
+		return !MixAddress.of(packet).isRelay();
 	}
 }
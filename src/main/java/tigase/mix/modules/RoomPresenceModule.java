@@ -20,17 +20,17 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.HandleEvent;
 import tigase.kernel.beans.Bean;
-import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.mix.IMixComponent;
 import tigase.mix.Mix;
 import tigase.mix.model.*;
-import tigase.pubsub.AbstractPubSubModule;
+import tigase.mix.util.ChannelExecutor;
+import tigase.mix.util.MulticastSupportResolver;
 import tigase.pubsub.CollectionItemsOrdering;
 import tigase.pubsub.exceptions.PubSubException;
 import tigase.pubsub.modules.mam.PubSubQuery;
@@ -38,32 +38,53 @@ import tigase.pubsub.repository.IItems;
 import tigase.server.Packet;
 import tigase.util.datetime.TimestampHelper;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.Collection;
-import java.util.Date;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @Bean(name = "roomPresenceModule", parent = IMixComponent.class, active = true)
 public class RoomPresenceModule
-		extends AbstractPubSubModule implements Initializable, UnregisterAware {
+		extends AbstractIndexedModule implements UnregisterAware {
 
 	private static final Logger logger = Logger.getLogger(RoomPresenceModule.class.getCanonicalName());
 
 	public static final String MUC_XMLNS = "http://jabber.org/protocol/muc";
 	public static final String MUC_USER_XMLNS = MUC_XMLNS + "#user";
 
-	private static final Criteria CRIT = ElementCriteria.name("presence");
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.name("presence") };
+	private static final Criteria CRIT = ModuleDispatchIndex.Route.criteria(ROUTES);
 	private static final String[] FEATURES = new String[] { MUC_XMLNS };
 
+	// presences differ only by addressing, so they are built once; each recipient still gets a full copy, as
+	// addressing is set on the element itself and delivered stanzas may be modified later
+	private static final Element PRESENCE_ENTER = createPresenceTemplate(true, false);
+	private static final Element PRESENCE_ENTER_SELF = createPresenceTemplate(true, true);
+	private static final Element PRESENCE_LEAVE = createPresenceTemplate(false, false);
+	private static final Element PRESENCE_LEAVE_SELF = createPresenceTemplate(false, true);
+
 	private final TimestampHelper timestampHelper = new TimestampHelper(true);
 	@Inject
 	private EventBus eventBus;
@@ -75,6 +96,25 @@ public class RoomPresenceModule
 	private RoomPresenceRepository roomPresenceRepository;
 	@Inject(nullAllowed = true)
 	private MucMessageBroadcastFilter messageBroadcastFilter;
+	@Inject(nullAllowed = true)
+	private MulticastSupportResolver multicastSupportResolver;
+	@ConfigField(desc = "Size of message (in characters) above which messages sent to other cluster nodes are compressed")
+	private int payloadCompressionThreshold = 2048;
+	@ConfigField(desc = "Number of MUC occupants above which join and leave presences are sent only in periodic digests (0 - disabled)")
+	private int largeRoomThreshold = 0;
+	@ConfigField(desc = "Maximal number of participants presences sent to the occupant joining a large room")
+	private int largeRoomOccupantsLimit = 100;
+	@Inject
+	private RoomPresenceDigest presenceDigest;
+	@Inject(nullAllowed = true)
+	private ChannelExecutor channelExecutor;
+	private final ConcurrentHashMap<OccupantKey, HistoryReplay> historyReplays = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Number of history messages sent to the joining occupant at once (0 - all at once)")
+	private int historyChunkSize = 20;
+	@ConfigField(desc = "Delay (in milliseconds) between sending chunks of history messages")
+	private long historyChunkDelay = 50;
+	@ConfigField(desc = "Maximal number of packets held for the occupant while history is sent, above which sending of history is abandoned")
+	private int historyDeferredLimit = 1000;
 
 	@Override
 	public boolean canHandle(Packet packet) {
@@ -89,6 +129,11 @@ public class RoomPresenceModule
 		return FEATURES;
 	}
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT;
@@ -113,46 +158,19 @@ public class RoomPresenceModule
 						// this is not a MUC-JOIN, ignore it..
 						return;
 					}
-					if (join(channelJID, packet.getStanzaFrom(), nick)) {
-						Element historyEl = x.getChild("history");
-						PubSubQuery query = getRepository().newQuery(channelJID);
-						query.setComponentJID(JID.jidInstanceNS(channelJID));
-						query.setQuestionerJID(packet.getStanzaFrom());
-						query.getRsm().setHasBefore(true);
-						query.setPubsubNode(Mix.Nodes.MESSAGES);
-						if (historyEl != null) {
-							if (!"0".equals(historyEl.getAttributeStaticStr("maxchars"))) {
-								Optional.ofNullable(historyEl.getAttributeStaticStr("maxstanzas"))
-										.map(this::parseIntOrNull)
-										.ifPresent(value -> query.getRsm().setMax(value));
-								Optional.ofNullable(historyEl.getAttributeStaticStr("since"))
-										.map(this::parseTimestampOrNull)
-										.ifPresent(query::setStart);
-								if (query.getStart() == null) {
-									Optional.ofNullable(historyEl.getAttributeStaticStr("seconds"))
-											.map(this::parseIntOrNull)
-											.map(s -> new Date(System.currentTimeMillis() - (s * 1000)))
-											.ifPresent(query::setStart);
-								}
-							} else {
-								query.getRsm().setMax(0);
-							}
-						}
-						if (query.getRsm().getMax() > 0) {
-							getRepository().queryItems(query, (q, item) -> {
-								String senderNick = Optional.ofNullable(item.getMessage().getChild("mix"))
-										.map(mix -> mix.getChild("nick"))
-										.map(Element::getCData)
-										.get();
-								item.getMessage()
-										.addChild(new Element("delay").withAttribute("xmlns", "urn:xmpp:delay")
-														  .withAttribute("from", channelJID.toString())
-														  .withAttribute("stamp", timestampHelper.formatWithMs(
-																  item.getTimestamp())));
-								packetWriter.write(Packet.packetInstance(item.getMessage(), JID.jidInstanceNS(channelJID, senderNick),
-																		 packet.getStanzaFrom()));
-							});
+					// live messages and presences sent to the occupant are held until its history is sent
+					HistoryReplay replay = new HistoryReplay(channelJID, packet.getStanzaFrom());
+					HistoryReplay previous = historyReplays.put(replay.key, replay);
+					if (previous != null) {
+						// occupant rejoined, so its previous history replay is superseded by the new one
+						previous.cancel();
+					}
+					try {
+						if (join(channelJID, packet.getStanzaFrom(), nick)) {
+							queryHistory(channelJID, packet.getStanzaFrom(), x.getChild("history"), replay);
 						}
+					} finally {
+						replay.run();
 					}
 					break;
 				case error:
@@ -168,6 +186,103 @@ public class RoomPresenceModule
 		}
 	}
 
+	private void queryHistory(BareJID channelJID, JID occupantJID, Element historyEl, HistoryReplay replay)
+			throws RepositoryException, ComponentException {
+		PubSubQuery query = newHistoryQuery(channelJID, occupantJID, null);
+		query.getRsm().setHasBefore(true);
+		Integer maxChars = null;
+		if (historyEl != null) {
+			maxChars = Optional.ofNullable(historyEl.getAttributeStaticStr("maxchars"))
+					.map(this::parseIntOrNull)
+					.orElse(null);
+			if (!"0".equals(historyEl.getAttributeStaticStr("maxchars"))) {
+				Optional.ofNullable(historyEl.getAttributeStaticStr("maxstanzas"))
+						.map(this::parseIntOrNull)
+						.ifPresent(value -> query.getRsm().setMax(value));
+				Optional.ofNullable(historyEl.getAttributeStaticStr("since"))
+						.map(this::parseTimestampOrNull)
+						.ifPresent(query::setStart);
+				if (query.getStart() == null) {
+					Optional.ofNullable(historyEl.getAttributeStaticStr("seconds"))
+							.map(this::parseIntOrNull)
+							.map(s -> new Date(System.currentTimeMillis() - (s * 1000)))
+							.ifPresent(query::setStart);
+				}
+			} else {
+				query.getRsm().setMax(0);
+			}
+		}
+		int limit = query.getRsm().getMax();
+		if (limit <= 0) {
+			return;
+		}
+		if (maxChars != null) {
+			// maxchars limit is counted from the most recent message, so messages are collected, but only these
+			// fitting in the limit are kept
+			HistoryCollector collector = new HistoryCollector(maxChars);
+			getRepository().queryItems(query, (q, item) -> collector.add(
+					createHistoryPacket(channelJID, occupantJID, item)));
+			collector.getPackets().forEach(replay::addHistory);
+			return;
+		}
+
+		// we only count messages here, history is read page by page while it is sent
+		query.getRsm().setMax(0);
+		getRepository().queryItems(query, (q, item) -> {});
+		Integer count = query.getRsm().getCount();
+		if (count == null || count <= 0) {
+			return;
+		}
+		int size = Math.min(limit, count);
+		replay.setPager(new HistoryPager(channelJID, occupantJID, query.getStart(), count - size, size));
+	}
+
+	private PubSubQuery newHistoryQuery(BareJID channelJID, JID occupantJID, Date start) {
+		PubSubQuery query = getRepository().newQuery(channelJID);
+		query.setComponentJID(JID.jidInstanceNS(channelJID));
+		query.setQuestionerJID(occupantJID);
+		query.setPubsubNode(Mix.Nodes.MESSAGES);
+		query.setStart(start);
+		return query;
+	}
+
+	private Packet createHistoryPacket(BareJID channelJID, JID occupantJID, IItems.IItem item) {
+		// archived message may be cached, so we decorate a copy
+		Element message = item.getMessage().clone();
+		String senderNick = Optional.ofNullable(message.getChild("mix"))
+				.map(mix -> mix.getChild("nick"))
+				.map(Element::getCData)
+				.get();
+		message.addChild(new Element("delay").withAttribute("xmlns", "urn:xmpp:delay")
+								 .withAttribute("from", channelJID.toString())
+								 .withAttribute("stamp", timestampHelper.formatWithMs(item.getTimestamp())));
+		return Packet.packetInstance(message, JID.jidInstanceNS(channelJID, senderNick), occupantJID);
+	}
+
+	/**
+	 * Sends packet to the occupant, unless history is being sent to the occupant. In such case packet is sent after
+	 * the history.
+	 */
+	protected void writeToOccupant(BareJID channelJID, JID occupantJID, Packet packet) {
+		HistoryReplay replay = historyReplays.isEmpty() ? null : historyReplays.get(new OccupantKey(channelJID, occupantJID));
+		if (replay == null || !replay.defer(packet)) {
+			packetWriter.write(packet);
+		}
+	}
+
+	private boolean isReplayingHistory(BareJID channelJID, JID occupantJID) {
+		return !historyReplays.isEmpty() && historyReplays.containsKey(new OccupantKey(channelJID, occupantJID));
+	}
+
+	private Executor getReplayExecutor(BareJID channelJID) {
+		return task -> {
+			// next chunk is processed with other tasks of the channel, if they are processed on the channel executor
+			if (channelExecutor == null || !channelExecutor.isEnabled() || !channelExecutor.execute(channelJID, task)) {
+				ForkJoinPool.commonPool().execute(task);
+			}
+		};
+	}
+
 	private Date parseTimestampOrNull(String str) {
 		try {
 			return timestampHelper.parseTimestamp(str);
@@ -190,7 +305,13 @@ public class RoomPresenceModule
 			message.removeChild(mixEl);
 		}
 
-		eventBus.fire(new MucMessageBroadcastEvent(config.getComponentName(), channelJID, senderNick, message));
+		MucMessageBroadcastEvent event = new MucMessageBroadcastEvent(config.getComponentName(), channelJID, senderNick,
+																	  message);
+		if (roomPresenceRepository.isClustered()) {
+			// event is delivered to other cluster nodes (even if we do not know about them yet), so we serialize it once
+			event.encodePayload(payloadCompressionThreshold);
+		}
+		eventBus.fire(event);
 	}
 
 	@HandleEvent
@@ -198,22 +319,58 @@ public class RoomPresenceModule
 		if (!config.getComponentName().equals(event.componentName)) {
 			return;
 		}
+		// in cluster only one node delivers message to occupants of the channel
+		if (!roomPresenceRepository.isResponsibleFor(event.getChannelJID())) {
+			return;
+		}
+		if (event.getMessage() == null) {
+			logger.log(Level.WARNING, "received broadcast event without message for " + event.getChannelJID());
+			return;
+		}
 
-
+		Map<String, List<JID>> multicastRecipients = null;
 		for (JID recipient : roomPresenceRepository.getRoomParticipantJids(event.getChannelJID())) {
 			if (shouldBroadcast(recipient)) {
+				if (multicastSupportResolver != null && !isReplayingHistory(event.getChannelJID(), recipient) &&
+						multicastSupportResolver.supportsMulticast(event.getChannelJID(), recipient.getDomain())) {
+					if (multicastRecipients == null) {
+						multicastRecipients = new HashMap<>();
+					}
+					multicastRecipients.computeIfAbsent(recipient.getDomain(), domain -> new ArrayList<>())
+							.add(recipient);
+					continue;
+				}
 				logger.log(Level.FINEST, () -> "sending message from " + event.getChannelJID() + " + with id " +
-						event.message.getAttributeStaticStr("id") + " to " + recipient);
-				packetWriter.write(Packet.packetInstance(event.getMessage().clone(),
-														 JID.jidInstanceNS(event.getChannelJID(),
-																		   event.getSenderNick()), recipient));
+						event.getMessage().getAttributeStaticStr("id") + " to " + recipient);
+				writeToOccupant(event.getChannelJID(), recipient, Packet.packetInstance(event.getMessage().clone(),
+																						JID.jidInstanceNS(
+																								event.getChannelJID(),
+																								event.getSenderNick()),
+																						recipient));
 			} else {
 				logger.log(Level.FINEST, () -> "not sending message from " + event.getChannelJID() + " + with id " +
-						event.message.getAttributeStaticStr("id") + " to " + recipient);
+						event.getMessage().getAttributeStaticStr("id") + " to " + recipient);
+			}
+		}
+		if (multicastRecipients != null) {
+			JID from = JID.jidInstanceNS(event.getChannelJID(), event.getSenderNick());
+			for (Map.Entry<String, List<JID>> e : multicastRecipients.entrySet()) {
+				sendMulticast(event.getMessage(), from, e.getKey(), e.getValue());
 			}
 		}
 	}
 
+	private void sendMulticast(Element message, JID from, String domain, List<JID> recipients) {
+		if (recipients.size() == 1) {
+			packetWriter.write(Packet.packetInstance(message.clone(), from, recipients.get(0)));
+			return;
+		}
+		logger.log(Level.FINEST, () -> "sending message from " + from + " with id " +
+				message.getAttributeStaticStr("id") + " to " + recipients.size() + " recipients at " + domain);
+		packetWriter.write(Packet.packetInstance(multicastSupportResolver.createMulticastStanza(message, domain, recipients),
+												 from, JID.jidInstanceNS(domain)));
+	}
+
 	@HandleEvent
 	public void handleKickoutEvent(RoomGhostbuster.KickoutEvent event) {
 		if (!config.getComponentName().equals(event.getComponentName())) {
@@ -229,7 +386,9 @@ public class RoomPresenceModule
 
 	@Override
 	public void initialize() {
+		super.initialize();
 		eventBus.registerAll(this);
+		presenceDigest.setOccupantWriter(this::writeToOccupant);
 	}
 
 	@Override
@@ -245,26 +404,34 @@ public class RoomPresenceModule
 
 	public void participantJoined(BareJID channelJID, JID occupant, String nick) {
 		Collection<JID> participants = roomPresenceRepository.getRoomParticipantJids(channelJID);
+		if (isLargeRoom(participants.size())) {
+			presenceDigest.participantChanged(channelJID, occupant, nick, true);
+			return;
+		}
 		if (!participants.isEmpty()) {
-			Element presence = preparePresence(true, false);
+			JID from = JID.jidInstanceNS(channelJID, nick);
 			for (JID recipient : participants) {
 				if (occupant != null && occupant.equals(recipient)) {
 					continue;
 				}
-				packetWriter.write(Packet.packetInstance(new Element(presence), JID.jidInstanceNS(channelJID, nick), recipient));
+				writeToOccupant(channelJID, recipient, Packet.packetInstance(preparePresence(true, false), from, recipient));
 			}
 		}
 	}
 
 	public void participantLeft(BareJID channelJID, JID occupant, String nick) {
 		Collection<JID> participants = roomPresenceRepository.getRoomParticipantJids(channelJID);
+		if (isLargeRoom(participants.size())) {
+			presenceDigest.participantChanged(channelJID, occupant, nick, false);
+			return;
+		}
 		if (!participants.isEmpty()) {
-			Element presence = preparePresence(false, false);
+			JID from = JID.jidInstanceNS(channelJID, nick);
 			for (JID recipient : participants) {
 				if (occupant != null && occupant.equals(recipient)) {
 					continue;
 				}
-				packetWriter.write(Packet.packetInstance(new Element(presence), JID.jidInstanceNS(channelJID, nick), recipient));
+				writeToOccupant(channelJID, recipient, Packet.packetInstance(preparePresence(false, false), from, recipient));
 			}
 		}
 	}
@@ -297,14 +464,17 @@ public class RoomPresenceModule
 		if (items != null) {
 			String[] itemsIds = items.getItemsIds(CollectionItemsOrdering.byUpdateDate);
 			if (itemsIds != null) {
-				for (String itemId : itemsIds) {
-					if (itemId.equals(participantId)) {
+				if (isLargeRoom(roomPresenceRepository.getRoomParticipantJids(channelJID).size()) &&
+						itemsIds.length > largeRoomOccupantsLimit) {
+					// in large rooms newcomer receives only the most recently active participants
+					itemsIds = Arrays.copyOfRange(itemsIds, itemsIds.length - largeRoomOccupantsLimit, itemsIds.length);
+				}
+				for (IParticipant p : mixRepository.getParticipants(channelJID, Arrays.asList(itemsIds)).values()) {
+					if (p.getParticipantId().equals(participantId)) {
 						continue;
 					}
-					Optional.ofNullable(mixRepository.getParticipant(channelJID, itemId))
-							.map(p -> Packet.packetInstance(preparePresence(true, false),
-															JID.jidInstanceNS(channelJID, p.getNick()), occupantJID))
-							.ifPresent(packetWriter::write);
+					packetWriter.write(Packet.packetInstance(preparePresence(true, false),
+															 JID.jidInstanceNS(channelJID, p.getNick()), occupantJID));
 				}
 			}
 		}
@@ -317,6 +487,10 @@ public class RoomPresenceModule
 	}
 
 	private void leave(BareJID channelJID, JID occupantJID, String nick) throws ComponentException, RepositoryException {
+		HistoryReplay replay = historyReplays.isEmpty() ? null : historyReplays.remove(new OccupantKey(channelJID, occupantJID));
+		if (replay != null) {
+			replay.cancel();
+		}
 		String participantId = mixLogic.generateTempParticipantId(channelJID, occupantJID);
 		IParticipant participant = mixRepository.getParticipant(channelJID, participantId);
 		if (participant != null) {
@@ -329,7 +503,26 @@ public class RoomPresenceModule
 		}
 	}
 
-	private Element preparePresence(boolean enter, boolean self) {
+	/**
+	 * Checks if room is large, based on the number of its MUC occupants (the same number for joins, leaves and
+	 * presences sent to the newcomer).
+	 */
+	private boolean isLargeRoom(int occupants) {
+		return largeRoomThreshold > 0 && occupants >= largeRoomThreshold;
+	}
+
+	/**
+	 * Returns a copy of the presence template, which is ready to be addressed to the recipient.
+	 */
+	public static Element preparePresence(boolean enter, boolean self) {
+		if (enter) {
+			return (self ? PRESENCE_ENTER_SELF : PRESENCE_ENTER).clone();
+		} else {
+			return (self ? PRESENCE_LEAVE_SELF : PRESENCE_LEAVE).clone();
+		}
+	}
+
+	private static Element createPresenceTemplate(boolean enter, boolean self) {
 		Element presence = new Element("presence");
 		if (!enter) {
 			presence.withAttribute("type", "unavailable");
@@ -345,12 +538,249 @@ public class RoomPresenceModule
 		});
 	}
 
+	/**
+	 * Collects the most recent history messages fitting in <code>maxchars</code> limit requested by the occupant.
+	 * Messages are received from the oldest, so older messages are dropped as soon as the limit is exceeded.
+	 */
+	private static class HistoryCollector {
+
+		private final Integer maxChars;
+		private final ArrayDeque<Packet> packets = new ArrayDeque<>();
+		private final ArrayDeque<Integer> lengths = new ArrayDeque<>();
+		private int chars = 0;
+
+		private HistoryCollector(Integer maxChars) {
+			this.maxChars = maxChars;
+		}
+
+		private void add(Packet packet) {
+			packets.add(packet);
+			if (maxChars != null) {
+				int length = packet.getElement().toString().length();
+				lengths.add(length);
+				chars += length;
+				while (chars > maxChars && !packets.isEmpty()) {
+					packets.poll();
+					chars -= lengths.poll();
+				}
+			}
+		}
+
+		private List<Packet> getPackets() {
+			return new ArrayList<>(packets);
+		}
+	}
+
+	private static class OccupantKey {
+
+		private final BareJID channelJID;
+		private final JID occupantJID;
+
+		private OccupantKey(BareJID channelJID, JID occupantJID) {
+			this.channelJID = channelJID;
+			this.occupantJID = occupantJID;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof OccupantKey)) {
+				return false;
+			}
+			OccupantKey that = (OccupantKey) o;
+			return channelJID.equals(that.channelJID) && occupantJID.equals(that.occupantJID);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(channelJID, occupantJID);
+		}
+	}
+
+	/**
+	 * Reads history of the channel from the repository, one page of <code>historyChunkSize</code> messages at a
+	 * time, starting from the oldest message to send.
+	 */
+	private class HistoryPager {
+
+		private final BareJID channelJID;
+		private final JID occupantJID;
+		private final Date start;
+		private int index;
+		private int remaining;
+
+		private HistoryPager(BareJID channelJID, JID occupantJID, Date start, int index, int remaining) {
+			this.channelJID = channelJID;
+			this.occupantJID = occupantJID;
+			this.start = start;
+			this.index = index;
+			this.remaining = remaining;
+		}
+
+		private boolean hasNext() {
+			return remaining > 0;
+		}
+
+		private List<Packet> next() throws RepositoryException, ComponentException {
+			int max = historyChunkSize > 0 ? Math.min(historyChunkSize, remaining) : remaining;
+			PubSubQuery query = newHistoryQuery(channelJID, occupantJID, start);
+			query.getRsm().setIndex(index);
+			query.getRsm().setMax(max);
+			List<Packet> packets = new ArrayList<>(max);
+			getRepository().queryItems(query, (q, item) -> packets.add(createHistoryPacket(channelJID, occupantJID, item)));
+			index += max;
+			// if messages were removed in the meantime, we may get less than requested, so we stop here
+			remaining = packets.size() < max ? 0 : remaining - max;
+			return packets;
+		}
+	}
+
+	/**
+	 * Sends history to the joining occupant in chunks of <code>historyChunkSize</code> messages, every
+	 * <code>historyChunkDelay</code> milliseconds. Packets sent to the occupant in the meantime are held and sent
+	 * after the history, so the occupant receives messages in order.
+	 * <br>
+	 * If more than <code>historyDeferredLimit</code> packets are held, the rest of the history is dropped and held
+	 * packets are sent at once. Replay is cancelled when the occupant leaves or rejoins the room.
+	 */
+	private class HistoryReplay
+			implements Runnable {
+
+		private final OccupantKey key;
+		private final ArrayDeque<Packet> history = new ArrayDeque<>();
+		private final ArrayDeque<Packet> deferred = new ArrayDeque<>();
+		private HistoryPager pager;
+		private boolean finished = false;
+
+		private HistoryReplay(BareJID channelJID, JID occupantJID) {
+			this.key = new OccupantKey(channelJID, occupantJID);
+		}
+
+		private synchronized void addHistory(Packet packet) {
+			history.add(packet);
+		}
+
+		private synchronized void setPager(HistoryPager pager) {
+			this.pager = pager;
+		}
+
+		/**
+		 * Holds packet until history is sent. Returns <code>false</code> if history was already sent.
+		 */
+		private synchronized boolean defer(Packet packet) {
+			if (finished) {
+				return false;
+			}
+			if (historyDeferredLimit > 0 && deferred.size() >= historyDeferredLimit) {
+				logger.log(Level.FINE, () -> "too many packets held for " + key.occupantJID + " in " +
+						key.channelJID + ", dropping rest of the history");
+				history.clear();
+				pager = null;
+				finish();
+				return false;
+			}
+			deferred.add(packet);
+			return true;
+		}
+
+		/**
+		 * Stops sending history and drops held packets, as occupant is no longer in the room.
+		 */
+		private synchronized void cancel() {
+			finished = true;
+			history.clear();
+			deferred.clear();
+			pager = null;
+		}
+
+		private void finish() {
+			Packet packet;
+			while ((packet = deferred.poll()) != null) {
+				packetWriter.write(packet);
+			}
+			finished = true;
+			historyReplays.remove(key, this);
+		}
+
+		@Override
+		public void run() {
+			HistoryPager pager;
+			synchronized (this) {
+				pager = history.isEmpty() && !finished ? this.pager : null;
+			}
+			List<Packet> page = Collections.emptyList();
+			if (pager != null && pager.hasNext()) {
+				try {
+					page = pager.next();
+				} catch (RepositoryException | ComponentException ex) {
+					logger.log(Level.WARNING, "could not read history of " + key.channelJID + " for " + key.occupantJID, ex);
+					pager.remaining = 0;
+				}
+			}
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				history.addAll(page);
+				if (this.pager != null && !this.pager.hasNext()) {
+					this.pager = null;
+				}
+				int limit = historyChunkSize > 0 ? historyChunkSize : Integer.MAX_VALUE;
+				Packet packet;
+				for (int i = 0; i < limit && (packet = history.poll()) != null; i++) {
+					packetWriter.write(packet);
+				}
+				if (history.isEmpty() && this.pager == null) {
+					finish();
+					return;
+				}
+			}
+			CompletableFuture.delayedExecutor(historyChunkDelay, TimeUnit.MILLISECONDS,
+											  getReplayExecutor(key.channelJID)).execute(this);
+		}
+	}
+
+	/**
+	 * Event with a message to broadcast to MUC occupants.
+	 * <br>
+	 * When sent to other cluster nodes, message is passed as a pre-serialized (and for large messages compressed)
+	 * payload, which is parsed only when message is needed.
+	 */
 	public static class MucMessageBroadcastEvent implements Serializable {
 
+		private static final String COMPRESSED_PREFIX = "gz:";
+
 		private String componentName;
 		private BareJID channelJID;
 		private String senderNick;
-		private Element message;
+		private transient Element message;
+		private String payload;
+
+		private static String compress(String data) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(data.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException ex) {
+				throw new IllegalStateException("Could not compress message", ex);
+			}
+			return COMPRESSED_PREFIX + Base64.getEncoder().encodeToString(out.toByteArray());
+		}
+
+		private static String decompress(String data) {
+			byte[] compressed = Base64.getDecoder().decode(data.substring(COMPRESSED_PREFIX.length()));
+			try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+				return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+			} catch (IOException ex) {
+				throw new IllegalStateException("Could not decompress message", ex);
+			}
+		}
+
+		private static Element parse(String data) {
+			DomBuilderHandler handler = new DomBuilderHandler();
+			SimpleParser parser = SingletonFactory.getParserInstance();
+			char[] chars = data.toCharArray();
+			parser.parse(handler, chars, 0, chars.length);
+			return handler.getParsedElements().poll();
+		}
 
 		public MucMessageBroadcastEvent() {
 		}
@@ -362,6 +792,15 @@ public class RoomPresenceModule
 			this.message = message;
 		}
 
+		/**
+		 * Serializes message to the payload, compressing it if it is longer than <code>compressionThreshold</code>
+		 * (if threshold is greater than 0).
+		 */
+		public void encodePayload(int compressionThreshold) {
+			String data = message.toString();
+			payload = (compressionThreshold > 0 && data.length() > compressionThreshold) ? compress(data) : data;
+		}
+
 		public BareJID getChannelJID() {
 			return channelJID;
 		}
@@ -370,6 +809,14 @@ public class RoomPresenceModule
 			this.channelJID = channelJID;
 		}
 
+		public String getComponentName() {
+			return componentName;
+		}
+
+		public void setComponentName(String componentName) {
+			this.componentName = componentName;
+		}
+
 		public String getSenderNick() {
 			return senderNick;
 		}
@@ -379,11 +826,27 @@ public class RoomPresenceModule
 		}
 
 		public Element getMessage() {
+			if (message == null && payload != null) {
+				message = parse(payload.startsWith(COMPRESSED_PREFIX) ? decompress(payload) : payload);
+			}
 			return message;
 		}
 
 		public void setMessage(Element message) {
 			this.message = message;
+			this.payload = null;
+		}
+
+		public String getPayload() {
+			if (payload == null && message != null) {
+				encodePayload(0);
+			}
+			return payload;
+		}
+
+		public void setPayload(String payload) {
+			this.payload = payload;
+			this.message = null;
 		}
 	}
 
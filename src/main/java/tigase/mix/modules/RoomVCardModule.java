@@ -20,28 +20,28 @@ package tigase.mix.modules;
 import tigase.component.exceptions.ComponentException;
 import tigase.component.exceptions.RepositoryException;
 import tigase.criteria.Criteria;
-import tigase.criteria.ElementCriteria;
 import tigase.kernel.beans.Bean;
 import tigase.mix.IMixComponent;
 import tigase.mix.Mix;
-import tigase.pubsub.AbstractPubSubModule;
 import tigase.pubsub.CollectionItemsOrdering;
 import tigase.pubsub.repository.IItems;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Optional;
 
 @Bean(name = "roomVCardModule", parent = IMixComponent.class, active = true)
-public class RoomVCardModule extends AbstractPubSubModule {
+public class RoomVCardModule extends AbstractIndexedModule {
 
 	private static final String[] FEATURES = new String[] { "vcard-temp" };
 
-	private static final Criteria CRIT = ElementCriteria.nameType("iq", "get")
-			.add(ElementCriteria.name("vCard", "vcard-temp"));
+	private static final ModuleDispatchIndex.Route[] ROUTES = {
+			ModuleDispatchIndex.Route.nameTypeChild("iq", StanzaType.get, "vCard", "vcard-temp") };
+	private static final Criteria CRIT = ModuleDispatchIndex.Route.criteria(ROUTES);
 
 	@Override
 	public boolean canHandle(Packet packet) {
@@ -56,6 +56,11 @@ public class RoomVCardModule extends AbstractPubSubModule {
 		return FEATURES;
 	}
 
+	@Override
+	protected ModuleDispatchIndex.Route[] getDispatchRoutes() {
+		return ROUTES;
+	}
+
 	@Override
 	public Criteria getModuleCriteria() {
 		return CRIT;
@@ -0,0 +1,222 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.util;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.mix.IMixComponent;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Comparator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes tasks for the same channel one after another (in the order in which they were submitted), while tasks for
+ * different channels are executed in parallel on the shared pool of threads.
+ * <br>
+ * Each active channel has its own mailbox, which is scheduled on the pool when it has pending tasks and removed when
+ * it is empty. Mailbox holds at most <code>mailboxSize</code> pending tasks, further tasks are rejected.
+ * <br>
+ * If <code>virtualThreads</code> are enabled (and supported by the JVM), mailboxes are executed on virtual threads, so
+ * tasks blocked on the repository do not block other channels, and number of mailboxes executed at the same time is
+ * limited by <code>maxConcurrentTasks</code> to not overload the repository.
+ */
+@Bean(name = "channelExecutor", parent = IMixComponent.class, active = true)
+public class ChannelExecutor
+		implements Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(ChannelExecutor.class.getCanonicalName());
+
+	private final ConcurrentHashMap<BareJID, Mailbox> mailboxes = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Maximal number of tasks of a single channel executed before other channels get a chance to run")
+	private int batchSize = 32;
+	@ConfigField(desc = "Process packets sent to the channel on a per-channel ordered executor")
+	private boolean enabled = false;
+	private Semaphore concurrencyLimit;
+	private ExecutorService executor;
+	@ConfigField(desc = "Maximal number of pending tasks of a single channel")
+	private int mailboxSize = 1000;
+	@ConfigField(desc = "Maximal number of channels processed at the same time when using virtual threads")
+	private int maxConcurrentTasks = 100;
+	@ConfigField(desc = "Number of threads used by the per-channel ordered executor")
+	private int threads = Runtime.getRuntime().availableProcessors();
+	@ConfigField(desc = "Execute tasks of channels on virtual threads")
+	private boolean virtualThreads = false;
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			// looked up by reflection as virtual threads are not available on all supported JVMs
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			log.log(Level.WARNING, "Virtual threads are not supported by this JVM, using pool of threads instead");
+			return null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queues task for execution. Returns <code>false</code> if the task was rejected as the channel has too many
+	 * pending tasks.
+	 */
+	public boolean execute(BareJID channelJID, Runnable task) {
+		AtomicBoolean accepted = new AtomicBoolean(false);
+		Mailbox mailbox = mailboxes.compute(channelJID, (jid, existing) -> {
+			Mailbox result = existing == null ? new Mailbox(jid) : existing;
+			if (result.getDepth() >= mailboxSize) {
+				return existing;
+			}
+			result.add(task);
+			accepted.set(true);
+			return result;
+		});
+		if (!accepted.get()) {
+			return false;
+		}
+		mailbox.schedule();
+		return true;
+	}
+
+	public int getActiveChannels() {
+		return mailboxes.size();
+	}
+
+	/**
+	 * Returns number of channels waiting for a permit to be processed.
+	 */
+	public int getWaitingChannels() {
+		return concurrencyLimit == null ? 0 : concurrencyLimit.getQueueLength();
+	}
+
+	/**
+	 * Reports number of pending tasks of channels with the longest queues.
+	 */
+	public void forEachDeepestMailbox(int limit, BiConsumer<BareJID, Integer> consumer) {
+		mailboxes.values()
+				.stream()
+				.sorted(Comparator.comparingInt(Mailbox::getDepth).reversed())
+				.limit(limit)
+				.forEach(mailbox -> consumer.accept(mailbox.channelJID, mailbox.getDepth()));
+	}
+
+	@Override
+	public void initialize() {
+		if (enabled) {
+			if (virtualThreads) {
+				executor = newVirtualThreadPerTaskExecutor();
+				if (executor != null) {
+					concurrencyLimit = new Semaphore(maxConcurrentTasks);
+				}
+			}
+			if (executor == null) {
+				executor = Executors.newFixedThreadPool(threads);
+			}
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	private class Mailbox
+			implements Runnable {
+
+		private final BareJID channelJID;
+		private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger depth = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		private Mailbox(BareJID channelJID) {
+			this.channelJID = channelJID;
+		}
+
+		private void add(Runnable task) {
+			queue.add(task);
+			depth.incrementAndGet();
+		}
+
+		private int getDepth() {
+			return depth.get();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException ex) {
+					scheduled.set(false);
+					log.log(Level.WARNING, "executor is stopped, could not process tasks for channel " + channelJID);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (concurrencyLimit == null) {
+				execute();
+				return;
+			}
+			try {
+				concurrencyLimit.acquire();
+			} catch (InterruptedException ex) {
+				// tasks are still queued, so mailbox needs to be executed again (on another thread)
+				scheduled.set(false);
+				Thread.currentThread().interrupt();
+				schedule();
+				return;
+			}
+			try {
+				execute();
+			} finally {
+				concurrencyLimit.release();
+			}
+		}
+
+		private void execute() {
+			Runnable task;
+			int executed = 0;
+			while (executed < batchSize && (task = queue.poll()) != null) {
+				depth.decrementAndGet();
+				executed++;
+				try {
+					task.run();
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "exception while processing task for channel " + channelJID, ex);
+				}
+			}
+			scheduled.set(false);
+			// mailbox is removed only if nothing was added to it in the meantime
+			mailboxes.computeIfPresent(channelJID, (jid, mailbox) -> mailbox == this && queue.isEmpty() ? null : mailbox);
+			if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+}
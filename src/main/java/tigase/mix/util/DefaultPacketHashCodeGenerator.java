@@ -19,23 +19,49 @@ package tigase.mix.util;
 
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.mix.IMixComponent;
 import tigase.pubsub.PubSubComponent;
 import tigase.server.Packet;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Custom PacketHashCodeGenerator for MIX to process all requests from the same user on the same thread.
+ * <br>
+ * If <code>channelAffinity</code> is enabled, requests sent to the channel (or relayed by the channel) are processed
+ * on the same thread, no matter who sent them. To keep a single hot channel from blocking a whole queue, a channel
+ * which received more than <code>hotChannelThreshold</code> packets per second during the last window of
+ * <code>hotChannelWindow</code> seconds has its requests spread by the sender for the whole next window. It returns to
+ * a single thread after a window with less than half of the threshold. Decision changes only at window boundaries, so
+ * requests of a single sender may be reordered only when the channel switches between modes.
  */
 @Bean(name = "packetHashCodeGenerator", parent = IMixComponent.class, active = true)
 public class DefaultPacketHashCodeGenerator implements PubSubComponent.PacketHashCodeGenerator {
 
+	private final ConcurrentHashMap<BareJID, ChannelLoad> channelLoads = new ConcurrentHashMap<>();
+	private final AtomicLong lastCleanupWindow = new AtomicLong();
+	@ConfigField(desc = "Process all packets sent to the same channel on the same thread")
+	private boolean channelAffinity = false;
 	@Inject(nullAllowed = true)
 	private IMixComponent component;
+	@ConfigField(desc = "Number of packets per second after which channel is no longer bound to a single thread")
+	private int hotChannelThreshold = 500;
+	@ConfigField(desc = "Time (in seconds) for which channel stays bound (or not bound) to a single thread")
+	private int hotChannelWindow = 10;
 
 	@Override
 	public int hashCodeForPacket(Packet packet) {
 		if ((packet.getStanzaFrom() != null) && (packet.getPacketFrom() != null) &&
 				!component.getComponentId().equals(packet.getPacketFrom())) {
+			if (channelAffinity) {
+				BareJID channelJID = MixAddress.of(packet).getChannelJID();
+				if (channelJID != null && !isHot(channelJID)) {
+					return channelJID.hashCode();
+				}
+			}
 			return packet.getStanzaFrom().hashCode();
 		}
 
@@ -45,4 +71,41 @@ public class DefaultPacketHashCodeGenerator implements PubSubComponent.PacketHas
 
 		return 1;
 	}
+
+	private boolean isHot(BareJID channelJID) {
+		long window = System.currentTimeMillis() / (Math.max(1, hotChannelWindow) * 1000L);
+		long lastCleanup = lastCleanupWindow.get();
+		if (lastCleanup != window && lastCleanupWindow.compareAndSet(lastCleanup, window)) {
+			// channels not used during the last window would be switched back to a single thread anyway
+			channelLoads.values().removeIf(load -> load.isIdle(window));
+		}
+		return channelLoads.computeIfAbsent(channelJID, jid -> new ChannelLoad(window))
+				.isHot(window, (long) hotChannelThreshold * Math.max(1, hotChannelWindow));
+	}
+
+	private static class ChannelLoad {
+
+		private long window;
+		private long count = 0;
+		private boolean hot = false;
+
+		private ChannelLoad(long window) {
+			this.window = window;
+		}
+
+		private synchronized boolean isHot(long currentWindow, long threshold) {
+			if (currentWindow != window) {
+				long lastCount = currentWindow == window + 1 ? count : 0;
+				hot = hot ? lastCount >= threshold / 2 : lastCount > threshold;
+				window = currentWindow;
+				count = 0;
+			}
+			count++;
+			return hot;
+		}
+
+		private synchronized boolean isIdle(long currentWindow) {
+			return window < currentWindow - 1;
+		}
+	}
 }
@@ -33,13 +33,19 @@ import tigase.xmpp.Authorization;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Path;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -57,14 +63,26 @@ public class MIXRepositoryManagerExtension
 			.requireArguments(false)
 			.build();
 
+	private final CommandlineParameter PARALLEL_MIX_EXPORT = new CommandlineParameter.Builder(null, "parallel-mix-export").type(Boolean.class)
+			.description("Export MIX channels in parallel using all available CPU cores")
+			.defaultValue("false")
+			.requireArguments(false)
+			.build();
+
+	private final CommandlineParameter PARALLEL_MIX_IMPORT = new CommandlineParameter.Builder(null, "parallel-mix-import").type(Boolean.class)
+			.description("Import MIX channels in parallel using all available CPU cores")
+			.defaultValue("false")
+			.requireArguments(false)
+			.build();
+
 	@Override
 	public Stream<CommandlineParameter> getImportParameters() {
-		return Stream.of(INCLUDE_MIX);
+		return Stream.of(INCLUDE_MIX, PARALLEL_MIX_IMPORT);
 	}
 
 	@Override
 	public Stream<CommandlineParameter> getExportParameters() {
-		return Stream.of(INCLUDE_MIX, EXPORT_MAM_SINCE);
+		return Stream.of(INCLUDE_MIX, EXPORT_MAM_SINCE, PARALLEL_MIX_EXPORT);
 	}
 
 	@Override
@@ -83,24 +101,68 @@ public class MIXRepositoryManagerExtension
 			if (serviceJIDs != null && !serviceJIDs.isEmpty()) {
 				Path mixComponentFile = getRootPath().resolve(rootServiceJID.getDomain() + ".xml");
 				log.info("exporting MIX data for component domain " + name + "." + domain + "..");
+				Path channelsDir = mixComponentFile.resolveSibling(rootServiceJID.getDomain());
+				ExportProgress progress = new ExportProgress(rootServiceJID.getDomain(), serviceJIDs.size());
 				exportInclude(writer, mixComponentFile, pubsubWriter -> {
 					pubsubWriter.append("<mix xmlns=\"tigase:xep-0227:mix:0\" name=\"").append(name).append("\">\n");
-					for (BareJID serviceJID : serviceJIDs) {
-						exportInclude(pubsubWriter, mixComponentFile.resolveSibling(rootServiceJID.getDomain())
-								.resolve(serviceJID.getLocalpart() + ".xml"), channelWriter -> {
-							boolean isPublic = publicServiceJIDs.contains(serviceJID);
-							channelWriter.append("<channel name=\"")
-									.append(serviceJID.getLocalpart())
-									.append("\" public=\"")
-									.append(String.valueOf(isPublic))
-									.append("\">\n");
-							exportData(serviceJID, false, channelWriter);
-							channelWriter.append("\n</channel>");
-						});
+					if (isSet(PARALLEL_MIX_EXPORT)) {
+						exportChannelsInParallel(pubsubWriter, channelsDir, serviceJIDs, publicServiceJIDs, progress);
+					} else {
+						for (BareJID serviceJID : serviceJIDs) {
+							exportChannel(pubsubWriter, channelsDir, serviceJID, publicServiceJIDs.contains(serviceJID));
+							progress.channelExported();
+						}
 					}
 					pubsubWriter.append("</mix>");
 				});
+				progress.finished();
+			}
+		}
+	}
+
+	protected void exportChannel(Writer pubsubWriter, Path channelsDir, BareJID serviceJID, boolean isPublic)
+			throws Exception {
+		exportInclude(pubsubWriter, channelsDir.resolve(serviceJID.getLocalpart() + ".xml"), channelWriter -> {
+			channelWriter.append("<channel name=\"")
+					.append(serviceJID.getLocalpart())
+					.append("\" public=\"")
+					.append(String.valueOf(isPublic))
+					.append("\">\n");
+			exportData(serviceJID, false, channelWriter);
+			channelWriter.append("\n</channel>");
+		});
+	}
+
+	/**
+	 * Channel files are written by a bounded pool of workers while references to them are appended to the component
+	 * file by the calling thread in the same order as channels are listed, so the output is the same as for sequential
+	 * export.
+	 */
+	protected void exportChannelsInParallel(Writer pubsubWriter, Path channelsDir, List<BareJID> serviceJIDs,
+											Set<BareJID> publicServiceJIDs, ExportProgress progress)
+			throws Exception {
+		int workers = Runtime.getRuntime().availableProcessors();
+		int maxPending = workers * 2;
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			ArrayDeque<Future<String>> pending = new ArrayDeque<>(maxPending);
+			for (BareJID serviceJID : serviceJIDs) {
+				if (pending.size() >= maxPending) {
+					pubsubWriter.append(pending.poll().get());
+				}
+				boolean isPublic = publicServiceJIDs.contains(serviceJID);
+				pending.add(executor.submit(() -> {
+					StringWriter includeWriter = new StringWriter();
+					exportChannel(includeWriter, channelsDir, serviceJID, isPublic);
+					progress.channelExported();
+					return includeWriter.toString();
+				}));
 			}
+			while (!pending.isEmpty()) {
+				pubsubWriter.append(pending.poll().get());
+			}
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
@@ -120,7 +182,43 @@ public class MIXRepositoryManagerExtension
 		String prefix = attrs.get("name");
 		String subdomain = prefix == null ? domain : (prefix + "." + domain);
 
-		return new MIXImporterExtension(getRepository(PubSubDAO.class, subdomain), subdomain, isSet(INCLUDE_MIX));
+		return new MIXImporterExtension(getRepository(PubSubDAO.class, subdomain), subdomain, isSet(INCLUDE_MIX),
+										isSet(PARALLEL_MIX_IMPORT));
+	}
+
+	protected static class ExportProgress {
+
+		private static final int LOG_EVERY = 100;
+
+		private final String componentDomain;
+		private final int total;
+		private final AtomicInteger exported = new AtomicInteger();
+		private final long startTime = System.currentTimeMillis();
+
+		protected ExportProgress(String componentDomain, int total) {
+			this.componentDomain = componentDomain;
+			this.total = total;
+		}
+
+		protected void channelExported() {
+			int count = exported.incrementAndGet();
+			if (count % LOG_EVERY == 0) {
+				log.info("exported " + count + " of " + total + " MIX channels for " + componentDomain + " (" +
+								 channelsPerSecond(count) + " channels/s)");
+			}
+		}
+
+		protected void finished() {
+			int count = exported.get();
+			log.info("exported " + count + " MIX channels for " + componentDomain + " in " +
+							 (System.currentTimeMillis() - startTime) / 1000 + "s (" + channelsPerSecond(count) +
+							 " channels/s)");
+		}
+
+		private long channelsPerSecond(int count) {
+			long time = Math.max(1, System.currentTimeMillis() - startTime);
+			return (count * 1000L) / time;
+		}
 	}
 
 	public static class MIXImporterExtension extends AbstractImporterExtension {
@@ -128,12 +226,17 @@ public class MIXRepositoryManagerExtension
 		private final String domain;
 		private final boolean includeMIX;
 		private final PubSubDAO pubSubDAO;
-		private BareJID channel;
-		private ImporterExtension activeExtension = null;
+		private final ParallelMAMImport parallelImport;
+		private ChannelImporter channelImporter;
 		private final HashSet<BareJID> existingChannels;
 		private int depth;
 
 		public MIXImporterExtension(PubSubDAO pubSubDAO, String domain, boolean includeMIX) throws RepositoryException {
+			this(pubSubDAO, domain, includeMIX, false);
+		}
+
+		public MIXImporterExtension(PubSubDAO pubSubDAO, String domain, boolean includeMIX, boolean parallel)
+				throws RepositoryException {
 			this.pubSubDAO = pubSubDAO;
 			this.domain = domain;
 			this.includeMIX = includeMIX;
@@ -141,6 +244,7 @@ public class MIXRepositoryManagerExtension
 				log.info("importing MIX data for component domain " + domain + "...");
 			}
 			existingChannels = new HashSet<BareJID>(pubSubDAO.getServices(BareJID.bareJIDInstanceNS(domain), null));
+			parallelImport = (includeMIX && parallel) ? new ParallelMAMImport(pubSubDAO, domain) : null;
 		}
 
 		@Override
@@ -149,27 +253,17 @@ public class MIXRepositoryManagerExtension
 				depth++;
 				return true;
 			}
-			if (channel != null) {
-				if (activeExtension != null) {
-					return activeExtension.startElement(name, attrs);
-				}
-				if (!"pubsub".equals(name)) {
-					return false;
-				}
-				activeExtension = switch (attrs.get("xmlns")) {
-					case "http://jabber.org/protocol/pubsub#owner" -> new PubSubOwnerImporterExtension(pubSubDAO, channel, false);
-					case "http://jabber.org/protocol/pubsub" -> new PubSubDataImporterExtension(pubSubDAO, channel, false, MIXMAMImporterExtension.class);
-					default -> null;
-				};
-				return activeExtension != null;
+			if (channelImporter != null) {
+				return channelImporter.startElement(name, attrs);
 			} else if ("channel".equals(name)) {
-				channel = BareJID.bareJIDInstance(attrs.get("name"), domain);
+				BareJID channel = BareJID.bareJIDInstance(attrs.get("name"), domain);
 				boolean isPublic = Boolean.parseBoolean(attrs.get("public"));
 				if (existingChannels.add(channel)) {
 					pubSubDAO.createService(channel, isPublic);
 				} else {
 					log.finest("MIX channel " + channel + ", already existed");
 				}
+				channelImporter = new ChannelImporter(pubSubDAO, channel);
 				return true;
 			}
 			return false;
@@ -177,8 +271,8 @@ public class MIXRepositoryManagerExtension
 
 		@Override
 		public boolean handleElement(Element element) throws Exception {
-			if (activeExtension != null && activeExtension.handleElement(element)) {
-				return true;
+			if (channelImporter != null) {
+				return channelImporter.handleElement(element);
 			}
 			return false;
 		}
@@ -189,7 +283,62 @@ public class MIXRepositoryManagerExtension
 				depth++;
 				return true;
 			}
-			
+
+			if (channelImporter != null && channelImporter.endElement(name)) {
+				return true;
+			}
+			if ("channel".equals(name)) {
+				channelImporter = null;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void close() throws Exception {
+			if (parallelImport != null) {
+				parallelImport.finish();
+			}
+		}
+	}
+
+	/**
+	 * Imports content of a single MIX channel element.
+	 */
+	protected static class ChannelImporter {
+
+		private final PubSubDAO pubSubDAO;
+		private final BareJID channel;
+		private ImporterExtension activeExtension = null;
+
+		protected ChannelImporter(PubSubDAO pubSubDAO, BareJID channel) {
+			this.pubSubDAO = pubSubDAO;
+			this.channel = channel;
+		}
+
+		public boolean startElement(String name, Map<String, String> attrs) throws Exception {
+			if (activeExtension != null) {
+				return activeExtension.startElement(name, attrs);
+			}
+			if (!"pubsub".equals(name)) {
+				return false;
+			}
+			activeExtension = switch (attrs.get("xmlns")) {
+				case "http://jabber.org/protocol/pubsub#owner" -> new PubSubOwnerImporterExtension(pubSubDAO, channel, false);
+				case "http://jabber.org/protocol/pubsub" -> new PubSubDataImporterExtension(pubSubDAO, channel, false, MIXMAMImporterExtension.class);
+				default -> null;
+			};
+			return activeExtension != null;
+		}
+
+		public boolean handleElement(Element element) throws Exception {
+			if (activeExtension != null && activeExtension.handleElement(element)) {
+				return true;
+			}
+			return false;
+		}
+
+		public boolean endElement(String name) throws Exception {
 			if (activeExtension != null && activeExtension.endElement(name)) {
 				return true;
 			}
@@ -198,52 +347,195 @@ public class MIXRepositoryManagerExtension
 				activeExtension = null;
 				return true;
 			}
-			if ("channel".equals(name)) {
-				channel = null;
-				return true;
-			}
 			return false;
 		}
 	}
 
+	/**
+	 * Stores MAM messages of imported channels using a bounded pool of workers, while the rest of the channel data is
+	 * imported by the parser thread. Channels are streamed by the parser in the same way as for sequential import and
+	 * parser thread is blocked when too many messages are waiting to be stored, so memory usage is bounded by the
+	 * number of pending messages and not by size of the channels.
+	 */
+	protected static class ParallelMAMImport {
+
+		private static final int PENDING_MESSAGES_PER_WORKER = 1000;
+		// MAM importer extensions are created by the pubsub importer, so they find the import by the repository
+		private static final Map<PubSubDAO, ParallelMAMImport> IMPORTS = Collections.synchronizedMap(
+				new IdentityHashMap<>());
+
+		private final PubSubDAO pubSubDAO;
+		private final String domain;
+		private final int maxPending;
+		private final ExecutorService executor;
+		private final Semaphore pending;
+		private final AtomicReference<Exception> failure = new AtomicReference<>();
+		private final AtomicLong stored = new AtomicLong();
+		private final long startTime = System.currentTimeMillis();
+
+		protected static ParallelMAMImport of(PubSubDAO pubSubDAO) {
+			return IMPORTS.get(pubSubDAO);
+		}
+
+		protected ParallelMAMImport(PubSubDAO pubSubDAO, String domain) {
+			int workers = Runtime.getRuntime().availableProcessors();
+			this.pubSubDAO = pubSubDAO;
+			this.domain = domain;
+			this.maxPending = workers * PENDING_MESSAGES_PER_WORKER;
+			this.executor = Executors.newFixedThreadPool(workers);
+			this.pending = new Semaphore(maxPending);
+			IMPORTS.put(pubSubDAO, this);
+		}
+
+		/**
+		 * Schedules storing of a message. If <code>previous</code> task is passed, message is stored after it.
+		 */
+		protected CompletableFuture<Void> submit(BareJID channel, CompletableFuture<Void> previous,
+												 MessageTask task) throws Exception {
+			checkFailure();
+			pending.acquire();
+			Runnable runnable = () -> {
+				try {
+					if (failure.get() == null) {
+						task.run();
+						stored.incrementAndGet();
+					}
+				} catch (Exception ex) {
+					failure.compareAndSet(null, new Exception("Could not import MAM message of MIX channel " + channel, ex));
+				} finally {
+					pending.release();
+				}
+			};
+			return previous == null
+				   ? CompletableFuture.runAsync(runnable, executor)
+				   : previous.thenRunAsync(runnable, executor);
+		}
+
+		protected void finish() throws Exception {
+			try {
+				// waits for all pending messages to be stored
+				pending.acquire(maxPending);
+				pending.release(maxPending);
+				checkFailure();
+				log.info("stored " + stored.get() + " MAM messages of MIX channels for " + domain + " in " +
+								 (System.currentTimeMillis() - startTime) / 1000 + "s");
+			} finally {
+				IMPORTS.remove(pubSubDAO);
+				executor.shutdownNow();
+			}
+		}
+
+		private void checkFailure() throws Exception {
+			Exception ex = failure.get();
+			if (ex != null) {
+				throw ex;
+			}
+		}
+
+		@FunctionalInterface
+		protected interface MessageTask {
+
+			void run() throws Exception;
+
+		}
+	}
+
 	public static class MIXMAMImporterExtension extends PubSubMAMImporterExtension {
 
+		private static final int LOG_EVERY = 10000;
+
+		private final ParallelMAMImport parallelImport;
+		private final AtomicLong imported = new AtomicLong();
+		private final AtomicLong skipped = new AtomicLong();
+		private Boolean archiveEmpty;
+		private CompletableFuture<Void> lastTask;
+		private long startTime = 0;
+
 		public MIXMAMImporterExtension(PubSubDAO pubSubDAO, BareJID serviceJID, String nodeName)
 				throws RepositoryException {
 			super(pubSubDAO, serviceJID, nodeName);
+			parallelImport = ParallelMAMImport.of(pubSubDAO);
 		}
 
 		@Override
 		protected boolean handleMessage(Message message, String stableId, Date timestamp, Element source)
 				throws Exception {
 			if ("urn:xmpp:mix:nodes:messages".equals(nodeName)) {
-				PubSubQuery query = pubSubDAO.newQuery(serviceJID);
-				if (query instanceof ExtendedQueryImpl extendedQuery) {
-					query.setPubsubNode(nodeName);
-					query.setComponentJID(JID.jidInstance(serviceJID));
-					query.setQuestionerJID(JID.jidInstance(serviceJID));
-					extendedQuery.setIds(List.of(stableId));
-					AtomicBoolean found = new AtomicBoolean(false);
-					try {
-						pubSubDAO.queryItems(query, nodeMeta.getNodeId(), (query1, item) -> {
-							found.set(true);
-						});
-						if (found.get()) {
-							log.finest("skipping inserting MAM item for " + serviceJID + ", node = " + nodeName + ", stable id = " + stableId);
-							return true;
-						}
-					} catch (ComponentException ex) {
-						if (ex.getErrorCondition() == Authorization.ITEM_NOT_FOUND) {
-							pubSubDAO.addMAMItem(serviceJID, nodeMeta.getNodeId(), stableId, message.getElement(), timestamp, null);
-						} else {
-							throw ex;
-						}
-					}
+				Element element = message.getElement();
+				if (parallelImport == null) {
+					importMessage(stableId, element, timestamp);
+				} else if (isArchiveEmpty()) {
+					// there is nothing to check against, so messages may be stored in parallel
+					parallelImport.submit(serviceJID, null, () -> importMessage(stableId, element, timestamp));
+				} else {
+					// messages need to be checked against stored ones one by one, in the order of the import
+					lastTask = parallelImport.submit(serviceJID, lastTask,
+													 () -> importMessage(stableId, element, timestamp));
 				}
 				return true;
 			} else {
 				return super.handleMessage(message, stableId, timestamp, source);
 			}
 		}
+
+		protected void importMessage(String stableId, Element message, Date timestamp) throws Exception {
+			long count;
+			if (!exists(stableId)) {
+				pubSubDAO.addMAMItem(serviceJID, nodeMeta.getNodeId(), stableId, message, timestamp, null);
+				count = imported.incrementAndGet() + skipped.get();
+			} else {
+				log.finest("skipping inserting MAM item for " + serviceJID + ", node = " + nodeName + ", stable id = " + stableId);
+				count = imported.get() + skipped.incrementAndGet();
+			}
+			if (count % LOG_EVERY == 0) {
+				long time = Math.max(1, System.currentTimeMillis() - startTime);
+				log.info("imported " + imported.get() + " and skipped " + skipped.get() +
+								 " existing MAM items for " + serviceJID + " (" + (count * 1000 / time) + " items/s)");
+			}
+		}
+
+		/**
+		 * Checks if message with the stable id is already stored in the channel. If channel had no messages when
+		 * import started (the usual case), there is nothing to check against and no query is executed.
+		 */
+		protected boolean exists(String stableId) throws Exception {
+			if (isArchiveEmpty()) {
+				return false;
+			}
+			return hasItems(stableId);
+		}
+
+		private boolean isArchiveEmpty() throws Exception {
+			if (archiveEmpty == null) {
+				startTime = System.currentTimeMillis();
+				archiveEmpty = !hasItems(null);
+				log.finest("channel " + serviceJID + ", node = " + nodeName + " has " +
+								   (archiveEmpty ? "no" : "some") + " MAM items before import");
+			}
+			return archiveEmpty;
+		}
+
+		private boolean hasItems(String stableId) throws Exception {
+			PubSubQuery query = pubSubDAO.newQuery(serviceJID);
+			query.setPubsubNode(nodeName);
+			query.setComponentJID(JID.jidInstance(serviceJID));
+			query.setQuestionerJID(JID.jidInstance(serviceJID));
+			query.getRsm().setMax(1);
+			if (stableId != null) {
+				if (!(query instanceof ExtendedQueryImpl extendedQuery)) {
+					return false;
+				}
+				extendedQuery.setIds(List.of(stableId));
+			}
+			AtomicBoolean found = new AtomicBoolean(false);
+			try {
+				pubSubDAO.queryItems(query, nodeMeta.getNodeId(), (query1, item) -> found.set(true));
+			} catch (ComponentException ex) {
+				if (ex.getErrorCondition() != Authorization.ITEM_NOT_FOUND) {
+					throw ex;
+				}
+			}
+			return found.get();
+		}
 	}
 }
@@ -0,0 +1,157 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.util;
+
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+/**
+ * Classification of the destination address of a packet sent to the MIX component.
+ * <br>
+ * Packet is classified once, before it is dispatched to modules, and the result is kept for the thread processing
+ * the packet so that modules do not need to parse and scan destination address again.
+ */
+public final class MixAddress {
+
+	public enum Kind {
+		/** packet without destination address */
+		none,
+		/** packet sent to the MIX service itself */
+		service,
+		/** packet sent to the channel bare JID */
+		channel,
+		/** packet sent to the participant of the channel (<code>participant-id#channel@service</code>) */
+		relay,
+		/** packet sent to the MUC occupant of the channel (<code>channel@service/nick</code>) */
+		occupant
+	}
+
+	private static final MixAddress NONE = new MixAddress(null, Kind.none, null, null);
+
+	private static final ThreadLocal<MixAddress> CURRENT = new ThreadLocal<>();
+
+	private final Packet packet;
+	private final Kind kind;
+	private final BareJID channelJID;
+	private final String participantId;
+
+	/**
+	 * Classifies destination address of the packet and marks it as the packet being processed by the current thread.
+	 */
+	public static MixAddress tag(Packet packet) {
+		return tag(packet, null);
+	}
+
+	/**
+	 * Marks the packet as the packet being processed by the current thread, reusing passed classification of the
+	 * packet if it was already made (ie. to select the channel mailbox).
+	 */
+	public static MixAddress tag(Packet packet, MixAddress address) {
+		if (address == null || address.packet != packet) {
+			address = classify(packet);
+		}
+		CURRENT.set(address);
+		return address;
+	}
+
+	/**
+	 * Removes mark of the packet being processed by the current thread.
+	 */
+	public static void untag() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Returns classification of the packet destination address, reusing result of {@link #tag(Packet)} if possible.
+	 */
+	public static MixAddress of(Packet packet) {
+		MixAddress address = CURRENT.get();
+		if (address != null && address.packet == packet) {
+			return address;
+		}
+		return classify(packet);
+	}
+
+	/**
+	 * Returns kind of the destination address of the element, reusing result of {@link #tag(Packet)} if the element
+	 * belongs to the packet being processed.
+	 */
+	public static Kind kindOf(Element element) {
+		MixAddress address = CURRENT.get();
+		if (address != null && address.packet.getElement() == element) {
+			return address.kind;
+		}
+		String to = element.getAttributeStaticStr("to");
+		if (to == null) {
+			return Kind.none;
+		}
+		return classify(null, JID.jidInstanceNS(to)).kind;
+	}
+
+	private static MixAddress classify(Packet packet) {
+		return classify(packet, packet.getStanzaTo());
+	}
+
+	private static MixAddress classify(Packet packet, JID to) {
+		if (to == null) {
+			return packet == null ? NONE : new MixAddress(packet, Kind.none, null, null);
+		}
+		String localpart = to.getLocalpart();
+		if (localpart == null) {
+			return new MixAddress(packet, Kind.service, null, null);
+		}
+		int idx = localpart.indexOf('#');
+		if (idx >= 0) {
+			return new MixAddress(packet, Kind.relay,
+								  BareJID.bareJIDInstanceNS(localpart.substring(idx + 1), to.getDomain()),
+								  localpart.substring(0, idx));
+		}
+		return new MixAddress(packet, to.getResource() == null ? Kind.channel : Kind.occupant, to.getBareJID(), null);
+	}
+
+	private MixAddress(Packet packet, Kind kind, BareJID channelJID, String participantId) {
+		this.packet = packet;
+		this.kind = kind;
+		this.channelJID = channelJID;
+		this.participantId = participantId;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean isRelay() {
+		return kind == Kind.relay;
+	}
+
+	/**
+	 * Returns bare JID of the channel or <code>null</code> if packet was not sent to the channel.
+	 */
+	public BareJID getChannelJID() {
+		return channelJID;
+	}
+
+	/**
+	 * Returns id of the participant to which packet should be relayed or <code>null</code> if it is not a relay.
+	 */
+	public String getParticipantId() {
+		return participantId;
+	}
+}
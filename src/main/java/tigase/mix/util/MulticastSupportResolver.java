@@ -0,0 +1,150 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.util;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.mix.IMixComponent;
+import tigase.server.AbstractMessageReceiver;
+import tigase.server.Packet;
+import tigase.server.ReceiverTimeoutHandler;
+import tigase.vhosts.VHostManagerIfc;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks (and caches) if remote servers support <a href="https://xmpp.org/extensions/xep-0033.html">XEP-0033:
+ * Extended Stanza Addressing</a>, so that a single stanza may be sent to many recipients on the same remote domain.
+ * <br>
+ * Until support is confirmed by the remote server, recipients on its domain should be delivered separately.
+ */
+@Bean(name = "multicastSupportResolver", parent = IMixComponent.class, active = true)
+public class MulticastSupportResolver {
+
+	public static final String ADDRESS_XMLNS = "http://jabber.org/protocol/address";
+
+	private static final Logger log = Logger.getLogger(MulticastSupportResolver.class.getCanonicalName());
+	private static final String DISCO_INFO_XMLNS = "http://jabber.org/protocol/disco#info";
+
+	private final ConcurrentHashMap<String, DomainSupport> domains = new ConcurrentHashMap<>();
+	@Inject(bean = "service")
+	private AbstractMessageReceiver component;
+	@ConfigField(desc = "Send messages to multiple recipients on the same remote domain as a single stanza")
+	private boolean enabled = false;
+	@ConfigField(desc = "Time (in minutes) for which support for multicast by the remote domain is cached")
+	private long expiration = 60;
+	@Inject
+	private VHostManagerIfc vHostManager;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Checks if support for multicast was confirmed for the domain. If support is not known yet, it is discovered in
+	 * the background (using <code>channelJID</code> as a source) and <code>false</code> is returned.
+	 */
+	public boolean supportsMulticast(BareJID channelJID, String domain) {
+		if (!enabled || vHostManager.isLocalDomain(domain)) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		DomainSupport support = domains.get(domain);
+		if (support != null && support.validUntil > now) {
+			return support.supported;
+		}
+		DomainSupport pending = new DomainSupport(false, now + TimeUnit.MINUTES.toMillis(1));
+		boolean shouldDiscover = support == null ? domains.putIfAbsent(domain, pending) == null : domains.replace(domain, support, pending);
+		if (shouldDiscover) {
+			discover(channelJID, domain);
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a single stanza to deliver to all recipients on the same remote domain.
+	 */
+	public Element createMulticastStanza(Element stanza, String domain, List<JID> recipients) {
+		Element multicast = stanza.clone();
+		multicast.setAttribute("to", domain);
+		Element addresses = new Element("addresses");
+		addresses.setXMLNS(ADDRESS_XMLNS);
+		for (JID recipient : recipients) {
+			addresses.addChild(new Element("address", new String[]{"type", "jid"},
+										   new String[]{"bcc", recipient.toString()}));
+		}
+		multicast.addChild(addresses);
+		return multicast;
+	}
+
+	protected void discover(BareJID channelJID, String domain) {
+		Element iq = new Element("iq", new String[]{"type", "id", "from", "to"},
+								 new String[]{"get", "mc-" + UUID.randomUUID(), channelJID.getDomain(), domain});
+		iq.addChild(new Element("query", new String[]{"xmlns"}, new String[]{DISCO_INFO_XMLNS}));
+		try {
+			Packet packet = Packet.packetInstance(iq);
+			packet.setXMLNS(Packet.CLIENT_XMLNS);
+			component.addOutPacketWithTimeout(packet, new ReceiverTimeoutHandler() {
+				@Override
+				public void responseReceived(Packet data, Packet response) {
+					boolean supported = response.getType() == StanzaType.result && isMulticastAdvertised(response);
+					log.log(Level.FINEST, () -> "domain " + domain + " support for multicast: " + supported);
+					domains.put(domain, new DomainSupport(supported, System.currentTimeMillis() +
+							TimeUnit.MINUTES.toMillis(expiration)));
+				}
+
+				@Override
+				public void timeOutExpired(Packet data) {
+					domains.put(domain, new DomainSupport(false, System.currentTimeMillis() +
+							TimeUnit.MINUTES.toMillis(expiration)));
+				}
+			}, 1, TimeUnit.MINUTES);
+		} catch (Exception ex) {
+			log.log(Level.FINEST, "could not check support for multicast by domain " + domain, ex);
+		}
+	}
+
+	private boolean isMulticastAdvertised(Packet response) {
+		Element query = response.getElemChild("query", DISCO_INFO_XMLNS);
+		if (query == null) {
+			return false;
+		}
+		return query.findChild(el -> el.getName() == "feature" && ADDRESS_XMLNS.equals(el.getAttributeStaticStr("var"))) != null;
+	}
+
+	private static class DomainSupport {
+
+		private final boolean supported;
+		private final long validUntil;
+
+		private DomainSupport(boolean supported, long validUntil) {
+			this.supported = supported;
+			this.validUntil = validUntil;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix;
+
+import java.util.logging.Logger;
+
+/**
+ * Simple timing harness used by benchmark tests. Each operation is warmed up before it is measured, and average time
+ * of a single execution is logged.
+ * <br>
+ * Results are only informative and are not asserted, as they depend on the machine running the tests.
+ */
+public class Benchmark {
+
+	private static final Logger log = Logger.getLogger(Benchmark.class.getCanonicalName());
+
+	private static final int WARMUP_ROUNDS = 3;
+
+	// keeps results of measured operations reachable, so that JIT cannot remove them
+	private static volatile Object sink;
+
+	public interface Operation {
+
+		Object execute(int iteration) throws Exception;
+
+	}
+
+	/**
+	 * Measures operation and returns average time (in nanoseconds) of a single execution.
+	 */
+	public static double measure(String name, int iterations, Operation operation) throws Exception {
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			run(iterations, operation);
+		}
+		long start = System.nanoTime();
+		run(iterations, operation);
+		double result = ((double) (System.nanoTime() - start)) / iterations;
+		log.info(String.format("%s: %.1f ns/op", name, result));
+		return result;
+	}
+
+	private static void run(int iterations, Operation operation) throws Exception {
+		for (int i = 0; i < iterations; i++) {
+			sink = operation.execute(i);
+		}
+	}
+
+	private Benchmark() {
+	}
+}
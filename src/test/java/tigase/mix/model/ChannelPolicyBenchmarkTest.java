@@ -0,0 +1,89 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import org.junit.Test;
+import tigase.mix.Benchmark;
+import tigase.mix.Mix;
+import tigase.pubsub.Affiliation;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares affiliation lookup in the compiled channel policy with evaluation of the channel configuration on each
+ * check, as it was done before the policy was compiled.
+ */
+public class ChannelPolicyBenchmarkTest {
+
+	private static final int ITERATIONS = 200_000;
+	private static final String[] NODES = Mix.Nodes.ALL_NODES.toArray(new String[0]);
+	private static final String[] USERS = {"owner", "admin", "participant", "other"};
+
+	@Test
+	public void testParticipationCheckedOnlyIfNeeded() throws Exception {
+		ChannelPolicy policy = ChannelPolicy.compile(new ChannelConfiguration());
+		AtomicInteger lookups = new AtomicInteger();
+		assertEquals(Affiliation.member, policy.getAffiliation(Mix.Nodes.JIDMAP, false, true, () -> {
+			lookups.incrementAndGet();
+			return false;
+		}));
+		assertEquals(0, lookups.get());
+		assertEquals(Affiliation.member, policy.getAffiliation(Mix.Nodes.MESSAGES, false, false, () -> {
+			lookups.incrementAndGet();
+			return true;
+		}));
+		assertEquals(1, lookups.get());
+	}
+
+	@Test
+	public void testAffiliationLookup() throws Exception {
+		ChannelConfiguration configuration = new ChannelConfiguration();
+		ChannelPolicy policy = ChannelPolicy.compile(configuration);
+		Set<String> participants = new HashSet<>(Set.of("owner", "participant"));
+
+		for (String node : NODES) {
+			for (String user : USERS) {
+				assertEquals(evaluate(configuration, node, user, participants),
+							 lookup(policy, node, user, participants));
+			}
+		}
+
+		Benchmark.measure("evaluation of configuration", ITERATIONS,
+						  i -> evaluate(configuration, NODES[i % NODES.length], USERS[i % USERS.length],
+										participants));
+		Benchmark.measure("compiled policy", ITERATIONS,
+						  i -> lookup(policy, NODES[i % NODES.length], USERS[i % USERS.length], participants));
+	}
+
+	// participation was checked on almost every path of the evaluation
+	private static Affiliation evaluate(ChannelConfiguration configuration, String node, String user,
+										Set<String> participants) {
+		return ChannelPolicy.evaluate(configuration, node, "owner".equals(user), "admin".equals(user),
+									  participants.contains(user));
+	}
+
+	private static Affiliation lookup(ChannelPolicy policy, String node, String user, Set<String> participants)
+			throws Exception {
+		return policy.getAffiliation(node, "owner".equals(user), "admin".equals(user),
+									 () -> participants.contains(user));
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import org.junit.Test;
+import tigase.mix.Mix;
+import tigase.pubsub.Affiliation;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelPolicyTest {
+
+	private static final String[] PERMISSION_FIELDS = {"messagesNodeSubscription", "participantsNodeSubscription",
+													   "informationNodeSubscription", "configurationNodeAccess",
+													   "informationNodeUpdateRights", "avatarNodesUpdateRights"};
+
+	@Test
+	public void testPolicyMatchesAffiliationsOfNodes() throws Exception {
+		List<String> nodes = new ArrayList<>(Mix.Nodes.ALL_NODES);
+		nodes.add("unknown-node");
+
+		ChannelNodePermission[] permissions = ChannelNodePermission.values();
+		int[] indexes = new int[PERMISSION_FIELDS.length];
+		do {
+			ChannelConfiguration configuration = new ChannelConfiguration();
+			for (int i = 0; i < PERMISSION_FIELDS.length; i++) {
+				setPermission(configuration, PERMISSION_FIELDS[i], permissions[indexes[i]]);
+			}
+			ChannelPolicy policy = ChannelPolicy.compile(configuration);
+			for (String node : nodes) {
+				for (int roles = 0; roles < 8; roles++) {
+					boolean owner = (roles & 1) != 0;
+					boolean admin = (roles & 2) != 0;
+					boolean participant = (roles & 4) != 0;
+					Affiliation expected = expectedAffiliation(configuration, node, owner, admin, participant);
+					String message = "node = " + node + ", owner = " + owner + ", admin = " + admin +
+							", participant = " + participant + ", configuration = " + describe(configuration);
+					assertEquals(message, expected,
+								 ChannelPolicy.evaluate(configuration, node, owner, admin, participant));
+					assertEquals(message, expected, policy.getAffiliation(node, owner, admin, () -> participant));
+				}
+			}
+		} while (next(indexes, permissions.length));
+	}
+
+	private static boolean next(int[] indexes, int size) {
+		for (int i = 0; i < indexes.length; i++) {
+			if (++indexes[i] < size) {
+				return true;
+			}
+			indexes[i] = 0;
+		}
+		return false;
+	}
+
+	private static void setPermission(ChannelConfiguration configuration, String name,
+									  ChannelNodePermission permission) throws Exception {
+		Field field = ChannelConfiguration.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(configuration, permission);
+	}
+
+	private static String describe(ChannelConfiguration configuration) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (String name : PERMISSION_FIELDS) {
+			Field field = ChannelConfiguration.class.getDeclaredField(name);
+			field.setAccessible(true);
+			sb.append(name).append('=').append(field.get(configuration)).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	// affiliations as they were evaluated by Affiliations before ChannelPolicy was introduced
+	private static Affiliation expectedAffiliation(ChannelConfiguration channelConfiguration, String nodeName,
+												   boolean owner, boolean admin, boolean participant) {
+		switch (nodeName) {
+			case Mix.Nodes.JIDMAP:
+				if (admin || owner) {
+					return Affiliation.member;
+				} else {
+					return Affiliation.none;
+				}
+			case Mix.Nodes.CONFIG:
+				switch (channelConfiguration.getConfigurationNodeAccess()) {
+					case participants:
+						if (owner) {
+							return Affiliation.owner;
+						} else {
+							return !participant ? Affiliation.none : Affiliation.member;
+						}
+					case admins:
+						if (owner) {
+							return Affiliation.owner;
+						} else if (admin) {
+							return !participant ? Affiliation.none : Affiliation.member;
+						} else {
+							return Affiliation.outcast;
+						}
+					case owners:
+						if (owner) {
+							return Affiliation.owner;
+						} else {
+							return Affiliation.none;
+						}
+					case allowed:
+					case nobody:
+					default:
+						return Affiliation.outcast;
+				}
+			case Mix.Nodes.INFO:
+				if (owner) {
+					return Affiliation.owner;
+				}
+				ChannelNodePermission updatePermission = channelConfiguration.getInformationNodeUpdateRights();
+				if (admin && updatePermission == ChannelNodePermission.admins) {
+					return Affiliation.publisher;
+				}
+				switch (channelConfiguration.getInformationNodeSubscription()) {
+					case allowed:
+					case participants:
+						return participant ? (updatePermission == ChannelNodePermission.participants
+											  ? Affiliation.publisher
+											  : Affiliation.member) : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					default:
+						return Affiliation.none;
+				}
+			case Mix.Nodes.AVATAR_DATA:
+			case Mix.Nodes.AVATAR_METADATA:
+				if (owner) {
+					return Affiliation.owner;
+				}
+				ChannelNodePermission avatarUpdatePermission = channelConfiguration.getAvatarNodesUpdateRights();
+				if (admin && avatarUpdatePermission == ChannelNodePermission.admins) {
+					return Affiliation.publisher;
+				}
+				return participant ? (avatarUpdatePermission == ChannelNodePermission.participants
+									  ? Affiliation.publisher
+									  : Affiliation.member) : Affiliation.none;
+			case Mix.Nodes.MESSAGES:
+				switch (channelConfiguration.getMessagesNodeSubscription()) {
+					case allowed:
+						return participant ? Affiliation.member : Affiliation.none;
+					case participants:
+						return participant ? Affiliation.member : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					default:
+						return Affiliation.none;
+				}
+			case Mix.Nodes.PARTICIPANTS:
+				switch (channelConfiguration.getParticipantsNodeSubscription()) {
+					case participants:
+						return participant ? Affiliation.member : Affiliation.none;
+					case anyone:
+						return Affiliation.member;
+					case admins:
+						return admin ? Affiliation.member : Affiliation.none;
+					case owners:
+						return owner ? Affiliation.member : Affiliation.none;
+					case allowed:
+					case nobody:
+						return Affiliation.none;
+				}
+			case Mix.Nodes.ALLOWED:
+			case Mix.Nodes.BANNED:
+				if (owner) {
+					return Affiliation.owner;
+				} else {
+					return admin ? Affiliation.publisher : Affiliation.none;
+				}
+			default:
+				return Affiliation.none;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class DefaultMixLogicTest {
+
+	private static final BareJID CHANNEL = BareJID.bareJIDInstanceNS("channel@mix.example.com");
+	private static final BareJID BANNED = BareJID.bareJIDInstanceNS("banned@example.com");
+	private static final BareJID USER = BareJID.bareJIDInstanceNS("user@example.com");
+
+	private DefaultMixLogic logic;
+
+	@Before
+	public void setUp() throws Exception {
+		InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+			case "getAllowed" -> Optional.empty();
+			case "getBanned" -> Optional.of(List.of(BANNED));
+			// no channel configuration and no participants
+			default -> null;
+		};
+		IMixRepository mixRepository = (IMixRepository) Proxy.newProxyInstance(IMixRepository.class.getClassLoader(),
+																			   new Class[]{IMixRepository.class},
+																			   handler);
+		logic = new DefaultMixLogic();
+		Field field = DefaultMixLogic.class.getDeclaredField("mixRepository");
+		field.setAccessible(true);
+		field.set(logic, mixRepository);
+	}
+
+	@Test
+	public void testPublishDeniedForNonParticipant() throws Exception {
+		assertEquals(PermissionDecision.notAllowed, logic.decidePermission(CHANNEL, USER, MixAction.publish));
+		try {
+			logic.checkPermission(CHANNEL, USER, MixAction.publish);
+			fail("Publication by non-participant should be denied");
+		} catch (AccessDeniedException ex) {
+			assertEquals(Authorization.NOT_ALLOWED, ex.getErrorCondition());
+			assertEquals(0, ex.getStackTrace().length);
+		}
+	}
+
+	@Test
+	public void testJoinDeniedForBanned() throws Exception {
+		assertEquals(PermissionDecision.notAllowed, logic.decidePermission(CHANNEL, BANNED, MixAction.join));
+		assertEquals(PermissionDecision.allowed, logic.decidePermission(CHANNEL, USER, MixAction.join));
+	}
+
+	@Test
+	public void testDecisionOfErrorCondition() {
+		assertEquals(PermissionDecision.forbidden, PermissionDecision.of(Authorization.FORBIDDEN));
+		assertTrue(PermissionDecision.of(Authorization.NOT_ALLOWED).isDenied());
+		assertFalse(PermissionDecision.of(Authorization.ITEM_NOT_FOUND).isDenied());
+		assertNull(PermissionDecision.of(Authorization.INTERNAL_SERVER_ERROR));
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.model;
+
+import org.junit.Test;
+import tigase.mix.Benchmark;
+import tigase.mix.Mix;
+import tigase.pubsub.Affiliation;
+import tigase.pubsub.exceptions.PubSubException;
+import tigase.pubsub.utils.PubSubLogic;
+import tigase.xmpp.Authorization;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares decision on access to the MIX node made from the affiliation computed by the channel policy with the
+ * decision reported by throwing an exception and wrapping it, as it was done before.
+ */
+public class PermissionDecisionBenchmarkTest {
+
+	private static final int ITERATIONS = 200_000;
+
+	@Test
+	public void testDecisionOfAffiliation() {
+		assertEquals(PermissionDecision.forbidden,
+					 DefaultMixLogic.decideNodeAccess(Affiliation.outcast, PubSubLogic.Action.subscribe));
+		assertEquals(PermissionDecision.notAllowed,
+					 DefaultMixLogic.decideNodeAccess(Affiliation.none, PubSubLogic.Action.subscribe));
+		assertEquals(PermissionDecision.notAllowed,
+					 DefaultMixLogic.decideNodeAccess(Affiliation.none, PubSubLogic.Action.retrieveItems));
+		assertEquals(PermissionDecision.allowed,
+					 DefaultMixLogic.decideNodeAccess(Affiliation.member, PubSubLogic.Action.subscribe));
+		assertEquals(PermissionDecision.allowed,
+					 DefaultMixLogic.decideNodeAccess(Affiliation.owner, PubSubLogic.Action.retrieveItems));
+	}
+
+	@Test
+	public void testDeniedDecision() throws Exception {
+		ChannelPolicy policy = ChannelPolicy.compile(new ChannelConfiguration());
+		assertEquals(PermissionDecision.notAllowed, decideUsingPolicy(policy));
+		assertEquals(PermissionDecision.notAllowed, decideUsingExceptions());
+
+		Benchmark.measure("decision reported by exceptions", ITERATIONS, i -> decideUsingExceptions());
+		Benchmark.measure("decision made from policy", ITERATIONS, i -> decideUsingPolicy(policy));
+	}
+
+	private static PermissionDecision decideUsingPolicy(ChannelPolicy policy) throws Exception {
+		Affiliation affiliation = policy.getAffiliation(Mix.Nodes.MESSAGES, false, false, () -> false);
+		return DefaultMixLogic.decideNodeAccess(affiliation, PubSubLogic.Action.subscribe);
+	}
+
+	// denial thrown by the PubSub logic was wrapped to drop the stack trace and then converted to the decision
+	private static PermissionDecision decideUsingExceptions() {
+		try {
+			try {
+				throw new PubSubException(Authorization.NOT_ALLOWED);
+			} catch (PubSubException ex) {
+				throw new AccessDeniedException(ex.getErrorCondition(), ex.getMessage());
+			}
+		} catch (AccessDeniedException ex) {
+			return PermissionDecision.of(ex.getErrorCondition());
+		}
+	}
+}
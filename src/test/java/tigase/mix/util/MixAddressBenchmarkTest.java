@@ -0,0 +1,92 @@
+/*
+ * Tigase MIX - MIX component for Tigase
+ * Copyright (C) 2020 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.mix.util;
+
+import org.junit.Test;
+import tigase.mix.Benchmark;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares classification of the destination address made once per packet with parsing it in every module checking
+ * the packet.
+ */
+public class MixAddressBenchmarkTest {
+
+	private static final int ITERATIONS = 200_000;
+	// number of modules checking destination address of a single packet
+	private static final int LOOKUPS = 5;
+
+	@Test
+	public void testClassification() throws Exception {
+		Packet[] packets = new Packet[]{packet("participant-1#channel@mix.example.com"),
+										packet("channel@mix.example.com"), packet("channel@mix.example.com/nick"),
+										packet("mix.example.com")};
+
+		assertEquals(MixAddress.Kind.relay, MixAddress.of(packets[0]).getKind());
+		assertEquals(BareJID.bareJIDInstanceNS("channel@mix.example.com"), MixAddress.of(packets[0]).getChannelJID());
+		assertEquals("participant-1", MixAddress.of(packets[0]).getParticipantId());
+		assertEquals(MixAddress.Kind.channel, MixAddress.of(packets[1]).getKind());
+		assertEquals(MixAddress.Kind.occupant, MixAddress.of(packets[2]).getKind());
+		assertEquals(MixAddress.Kind.service, MixAddress.of(packets[3]).getKind());
+
+		Benchmark.measure("parsing in each module", ITERATIONS, i -> {
+			Packet packet = packets[i % packets.length];
+			int relays = 0;
+			for (int j = 0; j < LOOKUPS; j++) {
+				if (isRelay(packet)) {
+					relays++;
+				}
+			}
+			return relays;
+		});
+		Benchmark.measure("classification once per packet", ITERATIONS, i -> {
+			Packet packet = packets[i % packets.length];
+			MixAddress.tag(packet);
+			try {
+				int relays = 0;
+				for (int j = 0; j < LOOKUPS; j++) {
+					if (MixAddress.of(packet).isRelay()) {
+						relays++;
+					}
+				}
+				return relays;
+			} finally {
+				MixAddress.untag();
+			}
+		});
+	}
+
+	// check done by modules before destination address was classified
+	private static boolean isRelay(Packet packet) {
+		JID jid = packet.getStanzaTo();
+		if (jid == null || jid.getLocalpart() == null) {
+			return false;
+		}
+		return jid.getLocalpart().contains("#");
+	}
+
+	private static Packet packet(String to) throws Exception {
+		return Packet.packetInstance(new Element("iq", new String[]{"from", "to", "type", "id"},
+												 new String[]{"user@example.com/res", to, "get", "1"}));
+	}
+}